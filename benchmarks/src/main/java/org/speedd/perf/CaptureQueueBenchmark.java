@@ -0,0 +1,94 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The analyzer's capture queue with Kafka consumer threads offering
+ * transaction-sized messages and the writer thread draining them. Full
+ * offers are dropped rather than blocked, so that the producers cannot hang
+ * once JMH stops the consumer; the drop count shows up as a secondary result.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureQueueBenchmark {
+	@Param({ "BUSY_SPIN", "YIELD", "PARK" })
+	public CaptureRingBuffer.WaitStrategy waitStrategy;
+
+	private CaptureRingBuffer queue;
+
+	private byte[] message;
+
+	private CaptureSink sink;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Offers {
+		public long dropped;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			dropped = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		queue = new CaptureRingBuffer(CaptureRingBuffer.DEFAULT_CAPACITY, CaptureRingBuffer.DEFAULT_SLOT_SIZE, waitStrategy, CaptureRingBuffer.FullPolicy.DROP);
+		message = Fixtures.transactions().get(0);
+
+		sink = new CaptureSink() {
+			@Override
+			public void write(long timestamp, int topicId, byte[] message, int offset, int length) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Benchmark
+	@Group("queue")
+	@GroupThreads(2)
+	public boolean offer(Offers offers) {
+		boolean offered = queue.offer(System.currentTimeMillis(), 0, message, 0, message.length);
+
+		if (!offered) {
+			offers.dropped++;
+		}
+
+		return offered;
+	}
+
+	@Benchmark
+	@Group("queue")
+	@GroupThreads(1)
+	public int drain() throws IOException {
+		return queue.drain(sink, 1024);
+	}
+}
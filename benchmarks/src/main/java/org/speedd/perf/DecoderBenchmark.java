@@ -0,0 +1,105 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.speedd.data.Event;
+import org.speedd.kafka.JsonEventDecoder;
+
+/**
+ * Decoding of derived (JSON) and input (CSV) events, and event id
+ * extraction per use case. Every invocation handles all fixture events once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+	private List<byte[]> derivedEvents;
+
+	private List<byte[]> transactions;
+
+	private List<byte[]> trafficReadings;
+
+	private List<Event> transactionEvents;
+
+	private List<Event> trafficEvents;
+
+	private JsonEventDecoder jsonDecoder;
+
+	private CCFEventMetadata ccf;
+
+	private TrafficEventMetadata traffic;
+
+	@Setup
+	public void setup() throws IOException {
+		derivedEvents = Fixtures.derivedEvents();
+		transactions = Fixtures.transactions();
+		trafficReadings = Fixtures.trafficReadings();
+
+		jsonDecoder = new JsonEventDecoder();
+		ccf = new CCFEventMetadata();
+		traffic = new TrafficEventMetadata();
+
+		transactionEvents = decodeAll(ccf, transactions);
+		trafficEvents = decodeAll(traffic, trafficReadings);
+	}
+
+	private static List<Event> decodeAll(EventMetadata metadata, List<byte[]> lines) {
+		List<Event> events = new ArrayList<Event>();
+		for (byte[] line : lines) {
+			events.add(metadata.getEventParser().fromBytes(line));
+		}
+		return events;
+	}
+
+	@Benchmark
+	public void jsonFromBytes(Blackhole bh) {
+		for (int i = 0; i < derivedEvents.size(); ++i) {
+			bh.consume(jsonDecoder.fromBytes(derivedEvents.get(i)));
+		}
+	}
+
+	@Benchmark
+	public void ccfFromBytes(Blackhole bh) {
+		for (int i = 0; i < transactions.size(); ++i) {
+			bh.consume(ccf.getEventParser().fromBytes(transactions.get(i)));
+		}
+	}
+
+	@Benchmark
+	public void trafficFromBytes(Blackhole bh) {
+		for (int i = 0; i < trafficReadings.size(); ++i) {
+			bh.consume(traffic.getEventParser().fromBytes(trafficReadings.get(i)));
+		}
+	}
+
+	@Benchmark
+	public void ccfEventId(Blackhole bh) {
+		for (int i = 0; i < transactionEvents.size(); ++i) {
+			bh.consume(ccf.getEventId(transactionEvents.get(i)));
+		}
+	}
+
+	@Benchmark
+	public void trafficEventId(Blackhole bh) {
+		for (int i = 0; i < trafficEvents.size(); ++i) {
+			bh.consume(traffic.getEventId(trafficEvents.get(i)));
+		}
+	}
+}
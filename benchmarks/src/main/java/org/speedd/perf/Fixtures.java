@@ -0,0 +1,117 @@
+package org.speedd.perf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark inputs, derived from the sample transactions and the captured
+ * event log shipped with perftools
+ */
+class Fixtures {
+	static final String TRANSACTIONS = "FeedzaiIntegrationData.csv";
+
+	static final String EVENT_LOG = "eventslog";
+
+	private Fixtures() {
+	}
+
+	static List<String> lines(String resource) throws IOException {
+		InputStream in = open(resource);
+		List<String> lines = new ArrayList<String>();
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		return lines;
+	}
+
+	/**
+	 * @return the CSV transactions
+	 */
+	static List<byte[]> transactions() throws IOException {
+		List<byte[]> transactions = new ArrayList<byte[]>();
+
+		for (String line : lines(TRANSACTIONS)) {
+			transactions.add(line.getBytes());
+		}
+
+		return transactions;
+	}
+
+	/**
+	 * @return payloads of the logged derived events, in JSON
+	 */
+	static List<byte[]> derivedEvents() throws IOException {
+		List<byte[]> events = new ArrayList<byte[]>();
+
+		for (String line : lines(EVENT_LOG)) {
+			String payload = line.split(":", 2)[1].trim();
+			if (payload.startsWith("{")) {
+				events.add(payload.getBytes());
+			}
+		}
+
+		return events;
+	}
+
+	/**
+	 * There is no traffic sample, so traffic readings are made up from the
+	 * transactions: timestamp, terminal as location, one of three lanes and
+	 * the amount as payload
+	 */
+	static List<byte[]> trafficReadings() throws IOException {
+		List<byte[]> readings = new ArrayList<byte[]>();
+		int i = 0;
+
+		for (String line : lines(TRANSACTIONS)) {
+			String[] fields = line.split(",", -1);
+			readings.add(String.format("%s,%s,%d,%s", fields[0], fields[13], i++ % 3, fields[3]).getBytes());
+		}
+
+		return readings;
+	}
+
+	/**
+	 * The generator reads its source from a file, which the resource is not
+	 * when running from the benchmarks jar
+	 */
+	static File copyToTempFile(String resource) throws IOException {
+		File file = File.createTempFile("fixture", ".csv");
+		file.deleteOnExit();
+
+		InputStream in = open(resource);
+		try {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			in.close();
+		}
+
+		return file;
+	}
+
+	private static InputStream open(String resource) throws IOException {
+		InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(resource);
+
+		if (in == null) {
+			throw new IOException("Missing fixture " + resource);
+		}
+
+		return in;
+	}
+}
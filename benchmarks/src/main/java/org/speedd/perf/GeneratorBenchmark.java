@@ -0,0 +1,86 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.speedd.data.Event;
+
+/**
+ * Creation of unique values, alone and as part of generating a replica of the
+ * sample transactions, with and without serialization
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+	private static final int NUM_OF_REPLICAS = 1000;
+
+	private TransactionEventGenerator generator;
+
+	private TransactionEventGenerator.Templates templates;
+
+	private UniqueValueGenerator values;
+
+	private int rep;
+
+	private long key;
+
+	@Setup
+	public void setup() throws IOException {
+		generator = new TransactionEventGenerator(1);
+		generator.initialize(Fixtures.copyToTempFile(Fixtures.TRANSACTIONS).getPath(), NUM_OF_REPLICAS);
+		templates = generator.createTemplates();
+		values = new UniqueValueGenerator(1);
+	}
+
+	@Benchmark
+	public String uniqueString() {
+		return values.uniqueString(0, key++, 7);
+	}
+
+	@Benchmark
+	public int uniqueInteger() {
+		return values.uniqueInteger(0, key++ & 0x3ff, 10, 7);
+	}
+
+	@Benchmark
+	public void generateReplica(final Blackhole bh) throws IOException {
+		generator.generateReplica(templates, nextReplica(), new TransactionEventGenerator.EventConsumer() {
+			@Override
+			public void onEvent(Event event) {
+				bh.consume(event);
+			}
+		});
+	}
+
+	@Benchmark
+	public void generateAndSerializeReplica(final Blackhole bh) throws IOException {
+		final EventMetadata metadata = generator.getEventMetadata();
+
+		generator.generateReplica(templates, nextReplica(), new TransactionEventGenerator.EventConsumer() {
+			@Override
+			public void onEvent(Event event) {
+				bh.consume(metadata.toBytes(event));
+			}
+		});
+	}
+
+	private int nextReplica() {
+		rep = (rep + 1) % NUM_OF_REPLICAS;
+		return rep;
+	}
+}
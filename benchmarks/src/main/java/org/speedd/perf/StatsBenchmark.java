@@ -0,0 +1,77 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.speedd.kafka.JsonEventDecoder;
+
+/**
+ * Offline analysis of the captured event log: decoding of log lines, and
+ * matching of the decoded entries, which is dominated by updateLatencies.
+ * Every invocation handles the whole log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBenchmark {
+	private List<String> lines;
+
+	private List<Stats.LogEntry> entries;
+
+	private Stats stats;
+
+	private JsonEventDecoder decoder;
+
+	@Setup
+	public void setup() throws IOException {
+		lines = Fixtures.lines(Fixtures.EVENT_LOG);
+
+		stats = new Stats();
+		stats.setEventMetadata(new CCFEventMetadata());
+		stats.initRecorders();
+
+		decoder = new JsonEventDecoder();
+
+		entries = new ArrayList<Stats.LogEntry>();
+		for (String line : lines) {
+			entries.add(stats.parseLine(line, decoder));
+		}
+	}
+
+	@Benchmark
+	public void parseLine(Blackhole bh) {
+		for (int i = 0; i < lines.size(); ++i) {
+			bh.consume(stats.parseLine(lines.get(i), decoder));
+		}
+	}
+
+	/**
+	 * Replays the decoded log into fresh recorders
+	 */
+	@Benchmark
+	public Stats processEntries() {
+		stats.initRecorders();
+
+		for (int i = 0; i < entries.size(); ++i) {
+			stats.processEntry(entries.get(i));
+		}
+
+		return stats;
+	}
+}
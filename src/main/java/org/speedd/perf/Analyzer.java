@@ -1,12 +1,20 @@
 package org.speedd.perf;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import kafka.consumer.Consumer;
 import kafka.consumer.ConsumerConfig;
@@ -14,12 +22,20 @@ import kafka.consumer.ConsumerIterator;
 import kafka.consumer.KafkaStream;
 import kafka.javaapi.consumer.ConsumerConnector;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.json.simple.JSONValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.impl.SimpleLoggerFactory;
@@ -28,44 +44,110 @@ public class Analyzer {
 	private static final String OPTION_ZK_CONNECT = "zookeeper";
 	private static final String OPTION_TOPICS = "topics";
 	private static final String OPTION_THREADS_PER_TOPIC = "threads";
-	private static final String USAGE = "analyzer --zookeeper=<host:port> --group=<group id> --topics=<name1,name2,...> --threads=<number>";
+	private static final String USAGE = "analyzer (--zookeeper=<host:port> --group=<group id> --threads=<number> | --bootstrap=<host:port,...> [--from=earliest|latest] [--fetch-min-bytes=<bytes>] [--fetch-max-wait=<ms>] [--max-partition-fetch-bytes=<bytes>]) --topics=<name1,name2,...> [--format=text|binary] [--out=<file>] [--queue-size=<power of 2>] [--wait=spin|yield|park] [--on-full=block|drop] [--report-interval=<sec>] [--buffer-size=<bytes>] [--flush-interval=<ms>] [--rotate-size=<MB>] [--compress=gzip|lz4] [--live=<interval sec> [--timeline-out=<file (.csv|.json)>] [--use-case=ccf|traffic] [--max-latency=<ms> | --partial-out=<file>]]";
 	private static final String OPTION_GROUP_ID = "group";
+	private static final String OPTION_FORMAT = "format";
+	private static final String OPTION_OUT_FILE = "out";
+	private static final String FORMAT_TEXT = "text";
+	private static final String FORMAT_BINARY = "binary";
+	private static final String FORMAT_NONE = "none";
+	private static final String USE_CASE_TRAFFIC = "traffic";
+	private static final String OPTION_QUEUE_SIZE = "queue-size";
+	private static final String OPTION_WAIT_STRATEGY = "wait";
+	private static final String OPTION_ON_FULL = "on-full";
+	private static final String OPTION_REPORT_INTERVAL = "report-interval";
+	private static final String OPTION_BUFFER_SIZE = "buffer-size";
+	private static final String OPTION_FLUSH_INTERVAL = "flush-interval";
+	private static final String OPTION_ROTATE_SIZE = "rotate-size";
+	private static final String OPTION_COMPRESS = "compress";
+	private static final String OPTION_LIVE_INTERVAL = "live";
+	private static final String OPTION_LIVE_OUT_FILE = "timeline-out";
+	private static final String OPTION_PARTIAL_OUT_FILE = "partial-out";
+	private static final String OPTION_USE_CASE = "use-case";
+	private static final String OPTION_MAX_LATENCY = "max-latency";
+	private static final long DEFAULT_LIVE_MAX_LATENCY = 60000;
+	private static final String OPTION_BOOTSTRAP_SERVERS = "bootstrap";
+	private static final String OPTION_FROM = "from";
+	private static final String OPTION_FETCH_MIN_BYTES = "fetch-min-bytes";
+	private static final String OPTION_FETCH_MAX_WAIT = "fetch-max-wait";
+	private static final String OPTION_MAX_PARTITION_FETCH_BYTES = "max-partition-fetch-bytes";
+	private static final String FROM_EARLIEST = "earliest";
+	private static final String FROM_LATEST = "latest";
+	private static final int WRITE_BATCH_SIZE = 1024;
+	private static final long POLL_TIMEOUT = 100;
 	private ConsumerConnector consumer;
+	private Properties clientConfig;
+	private boolean fromEarliest;
+	private List<PartitionRecorder> partitionRecorders;
 	private String[] topics;
 	private int threadsPerTopic;
 	private ExecutorService executor;
-	private ConcurrentLinkedQueue<String> queue;
+	private ScheduledExecutorService reporter;
+	private EventWriter writer;
+	private CaptureRingBuffer queue;
+	private CaptureSink sink;
+	private int reportInterval;
 	
 	private static class EventWriter implements Runnable {
-		private ConcurrentLinkedQueue<String> printQueue;
-		public EventWriter(ConcurrentLinkedQueue<String> printQueue) {
+		private CaptureRingBuffer printQueue;
+		private CaptureSink sink;
+		private volatile boolean stopped;
+		public EventWriter(CaptureRingBuffer printQueue, CaptureSink sink) {
 			this.printQueue = printQueue;
+			this.sink = sink;
+			this.stopped = false;
+		}
+		public void stop() {
+			stopped = true;
 		}
 		@Override
 		public void run() {
-			while(true){
-				String nextRecord = printQueue.poll();
-				if(nextRecord != null){
-					System.out.println(nextRecord);
-				} else {
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {}
+			try {
+				boolean flushed = true;
+				while(!stopped){
+					if(printQueue.drain(sink, WRITE_BATCH_SIZE) > 0){
+						flushed = false;
+					} else {
+						if(!flushed){
+							sink.flush();
+							flushed = true;
+						}
+						printQueue.getWaitStrategy().idle();
+					}
 				}
+				
+				while(printQueue.drain(sink, WRITE_BATCH_SIZE) > 0);
+				
+				sink.close();
+			} catch (IOException e) {
+				System.err.println("Capture failed: " + e.getMessage());
 			}
 		}	
 	}
 	
+	private static class QueueReporter implements Runnable {
+		private CaptureRingBuffer queue;
+		public QueueReporter(CaptureRingBuffer queue) {
+			this.queue = queue;
+		}
+		@Override
+		public void run() {
+			System.err.println(String.format("Captured: %d, queue depth: %d (max %d of %d), dropped: %d", queue.getConsumed(), queue.getDepth(), queue.getMaxDepth(), queue.getCapacity(), queue.getDrops()));
+		}
+	}
+	
 	private static class EventRecorder implements Runnable {
 		private KafkaStream stream;
 		private int threadId;
 		private String topic;
-		private ConcurrentLinkedQueue<String> printQueue;
+		private int topicId;
+		private CaptureRingBuffer printQueue;
 		
-		public EventRecorder(String topic, KafkaStream stream, int threadId, ConcurrentLinkedQueue<String> printQueue) {
+		public EventRecorder(String topic, int topicId, KafkaStream stream, int threadId, CaptureRingBuffer printQueue) {
 			this.stream = stream;
 			this.threadId = threadId;
 			this.topic = topic;
+			this.topicId = topicId;
 			this.printQueue = printQueue;
 		}
 
@@ -75,11 +157,11 @@ public class Analyzer {
 			
 	        ConsumerIterator<byte[], byte[]> it = stream.iterator();
 	        while (it.hasNext()) {
+	        	//hasNext() blocks until a message arrived - take the receive timestamp before touching it
 	        	long timestamp = System.currentTimeMillis();
-	        	String message = new String(it.next().message());
+	        	byte[] message = it.next().message();
 	        	
-//	        	System.out.println(timestamp + ":" + message);
-	        	printQueue.add(String.format("%d:%s", timestamp, message));
+	        	printQueue.offer(timestamp, topicId, message, 0, message.length);
 	        }
 	            
 	        System.err.println("Shutting down thread: " + threadId + " for topic " + topic);
@@ -87,10 +169,94 @@ public class Analyzer {
 		
 	}
 	
-	public Analyzer(String zkConnect, String[] topics, String groupId, int threadsPerTopic){
+	/**
+	 * Poll loop of a consumer assigned to a single partition
+	 */
+	private static class PartitionRecorder implements Runnable {
+		private KafkaConsumer<byte[], byte[]> consumer;
+		private TopicPartition partition;
+		private int topicId;
+		private CaptureRingBuffer printQueue;
+		private volatile boolean stopped;
+		
+		public PartitionRecorder(Properties clientConfig, TopicPartition partition, int topicId, boolean fromEarliest, CaptureRingBuffer printQueue) {
+			this.partition = partition;
+			this.topicId = topicId;
+			this.printQueue = printQueue;
+			this.stopped = false;
+			
+			consumer = new KafkaConsumer<byte[], byte[]>(clientConfig, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+			consumer.assign(Collections.singletonList(partition));
+			
+			if(fromEarliest){
+				consumer.seekToBeginning(partition);
+			} else {
+				consumer.seekToEnd(partition);
+			}
+		}
+		
+		public void stop() {
+			stopped = true;
+			consumer.wakeup();
+		}
+
+		@Override
+		public void run() {
+			System.err.println("Starting consumer for partition " + partition);
+			
+			try {
+				while(!stopped){
+					ConsumerRecords<byte[], byte[]> records = consumer.poll(POLL_TIMEOUT);
+					
+					//all records of a fetch were received together
+					long timestamp = System.currentTimeMillis();
+					
+					for (ConsumerRecord<byte[], byte[]> record : records) {
+						byte[] message = record.value();
+						printQueue.offer(timestamp, topicId, message, 0, message.length);
+					}
+				}
+			} catch (WakeupException e) {
+				//shutting down
+			} finally {
+				consumer.close();
+			}
+			
+			System.err.println("Shutting down consumer for partition " + partition);
+		}
+	}
+	
+	public Analyzer(String zkConnect, String[] topics, String groupId, int threadsPerTopic, CaptureSink sink, CaptureRingBuffer queue, int reportInterval){
 		consumer = Consumer.createJavaConsumerConnector(createConsumerConfig(zkConnect, groupId));
 		this.topics = topics;
 		this.threadsPerTopic = threadsPerTopic;
+		this.sink = sink;
+		this.queue = queue;
+		this.reportInterval = reportInterval;
+	}
+	
+	/**
+	 * Consumes every partition of the topics directly, in a poll loop per
+	 * partition, without consumer group coordination or offset commits
+	 */
+	public Analyzer(Properties clientConfig, String[] topics, boolean fromEarliest, CaptureSink sink, CaptureRingBuffer queue, int reportInterval){
+		this.clientConfig = clientConfig;
+		this.topics = topics;
+		this.fromEarliest = fromEarliest;
+		this.sink = sink;
+		this.queue = queue;
+		this.reportInterval = reportInterval;
+	}
+	
+	static Properties createClientConfig(String bootstrapServers, int fetchMinBytes, int fetchMaxWait, int maxPartitionFetchBytes) {
+		Properties props = new Properties();
+		props.put("bootstrap.servers", bootstrapServers);
+		props.put("enable.auto.commit", "false");
+		props.put("fetch.min.bytes", String.valueOf(fetchMinBytes));
+		props.put("fetch.max.wait.ms", String.valueOf(fetchMaxWait));
+		props.put("max.partition.fetch.bytes", String.valueOf(maxPartitionFetchBytes));
+		
+		return props;
 	}
 	
     private static ConsumerConfig createConsumerConfig(String zkConnect, String groupId) {
@@ -105,6 +271,11 @@ public class Analyzer {
     }
     
     public void run() {
+    	if(clientConfig != null){
+    		runPartitionRecorders();
+    		return;
+    	}
+    	
     	Map<String, Integer> topicCountMap = new HashMap<String, Integer>();
     	
     	for (String topic : topics) {
@@ -113,47 +284,333 @@ public class Analyzer {
     	
     	Map<String, List<KafkaStream<byte[], byte[]>>> consumerMap = consumer.createMessageStreams(topicCountMap);
 
-        executor = Executors.newFixedThreadPool(topics.length * threadsPerTopic + 1);
-        
-        queue = new ConcurrentLinkedQueue<String>();
-        
-        executor.submit(new EventWriter(queue));
+        startWriter(topics.length * threadsPerTopic);
 
-    	for (String topic : topics) {
+    	for (int topicId = 0; topicId < topics.length; ++topicId) {
+    		String topic = topics[topicId];
             List<KafkaStream<byte[], byte[]>> streams = consumerMap.get(topic);
             
             int threadId = 0;
             
             for (KafkaStream<byte[], byte[]> stream : streams) {
-				executor.submit(new EventRecorder(topic, stream, threadId, queue));
+				executor.submit(new EventRecorder(topic, topicId, stream, threadId, queue));
 				threadId++;
 			}
 		}
     	
     }
     
+    private void runPartitionRecorders() {
+    	partitionRecorders = new ArrayList<PartitionRecorder>();
+    	
+    	KafkaConsumer<byte[], byte[]> metadataConsumer = new KafkaConsumer<byte[], byte[]>(clientConfig, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+    	
+    	try {
+    		for (int topicId = 0; topicId < topics.length; ++topicId) {
+    			List<PartitionInfo> partitions = metadataConsumer.partitionsFor(topics[topicId]);
+    			
+    			if(partitions == null || partitions.isEmpty()){
+    				throw new IllegalArgumentException("Topic not found: " + topics[topicId]);
+    			}
+    			
+    			for (PartitionInfo partition : partitions) {
+    				partitionRecorders.add(new PartitionRecorder(clientConfig, new TopicPartition(partition.topic(), partition.partition()), topicId, fromEarliest, queue));
+    			}
+    		}
+    	} finally {
+    		metadataConsumer.close();
+    	}
+    	
+    	startWriter(partitionRecorders.size());
+    	
+    	for (PartitionRecorder recorder : partitionRecorders) {
+    		executor.submit(recorder);
+    	}
+    }
+    
+    private void startWriter(int numOfRecorders) {
+        executor = Executors.newFixedThreadPool(numOfRecorders + 1);
+        
+        writer = new EventWriter(queue, sink);
+        executor.submit(writer);
+        
+        if(reportInterval > 0){
+        	reporter = Executors.newSingleThreadScheduledExecutor();
+        	reporter.scheduleAtFixedRate(new QueueReporter(queue), reportInterval, reportInterval, TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Stops consuming, writes out what was captured so far and closes the sink
+     */
+    public void shutdown() throws InterruptedException {
+    	if(consumer != null){
+    		consumer.shutdown();
+    	}
+    	
+    	if(partitionRecorders != null){
+    		for (PartitionRecorder recorder : partitionRecorders) {
+    			recorder.stop();
+    		}
+    	}
+    	
+    	if(reporter != null){
+    		reporter.shutdown();
+    	}
+    	
+    	if(writer != null){
+    		writer.stop();
+    		executor.shutdown();
+    		executor.awaitTermination(10, TimeUnit.SECONDS);
+    	}
+    }
+    
 	public static void main(String[] args) {
 		Options options = new Options();
 
-		options.addOption(Option.builder().longOpt(OPTION_ZK_CONNECT).hasArg().required().build());
-		options.addOption(Option.builder().longOpt(OPTION_GROUP_ID).hasArg().required().build());
-		options.addOption(Option.builder().longOpt(OPTION_TOPICS).hasArg().build());
-		options.addOption(Option.builder().longOpt(OPTION_THREADS_PER_TOPIC).required().type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_ZK_CONNECT).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_GROUP_ID).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_TOPICS).hasArg().required().build());
+		options.addOption(Option.builder().longOpt(OPTION_THREADS_PER_TOPIC).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_BOOTSTRAP_SERVERS).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_FROM).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_FETCH_MIN_BYTES).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_FETCH_MAX_WAIT).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_MAX_PARTITION_FETCH_BYTES).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_FORMAT).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_OUT_FILE).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_QUEUE_SIZE).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_WAIT_STRATEGY).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_ON_FULL).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_REPORT_INTERVAL).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_BUFFER_SIZE).type(Integer.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_FLUSH_INTERVAL).type(Long.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_ROTATE_SIZE).type(Long.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_COMPRESS).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_LIVE_INTERVAL).type(Long.class).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_LIVE_OUT_FILE).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_PARTIAL_OUT_FILE).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_USE_CASE).hasArg().build());
+		options.addOption(Option.builder().longOpt(OPTION_MAX_LATENCY).type(Long.class).hasArg().build());
 
 		try {
 			CommandLineParser clParser = new DefaultParser();
 			CommandLine cmd = clParser.parse(options, args);
 			
+			boolean direct = cmd.hasOption(OPTION_BOOTSTRAP_SERVERS);
+			
+			if(direct == cmd.hasOption(OPTION_ZK_CONNECT)){
+				throw new ParseException("Exactly one of --zookeeper and --bootstrap must be given");
+			}
+			
+			if(!direct && !(cmd.hasOption(OPTION_GROUP_ID) && cmd.hasOption(OPTION_THREADS_PER_TOPIC))){
+				throw new ParseException("Consuming through ZooKeeper requires --group and --threads");
+			}
+			
+			String from = cmd.hasOption(OPTION_FROM)? cmd.getOptionValue(OPTION_FROM) : FROM_LATEST;
+			
+			if(!from.equals(FROM_EARLIEST) && !from.equals(FROM_LATEST)){
+				throw new ParseException("Unknown start position: " + from);
+			}
+			
 			String zkConnect = cmd.getOptionValue(OPTION_ZK_CONNECT);
 			String groupId = cmd.getOptionValue(OPTION_GROUP_ID);
 			String[] topics = cmd.getOptionValue(OPTION_TOPICS).split("\\s*,\\s*");
-			int threadsPerTopic = Integer.valueOf(cmd.getOptionValue(OPTION_THREADS_PER_TOPIC));
+			int threadsPerTopic = direct? 0 : Integer.valueOf(cmd.getOptionValue(OPTION_THREADS_PER_TOPIC));
+			String format = cmd.hasOption(OPTION_FORMAT)? cmd.getOptionValue(OPTION_FORMAT) : FORMAT_TEXT;
+			
+			if(!format.equals(FORMAT_TEXT) && !format.equals(FORMAT_BINARY) && !format.equals(FORMAT_NONE)){
+				throw new ParseException("Unknown capture format: " + format);
+			}
+			
+			if(format.equals(FORMAT_NONE) && !cmd.hasOption(OPTION_LIVE_INTERVAL)){
+				throw new ParseException("Capture format 'none' requires live analysis");
+			}
+			
+			if(cmd.hasOption(OPTION_PARTIAL_OUT_FILE) && !cmd.hasOption(OPTION_LIVE_INTERVAL)){
+				throw new ParseException("Partial results require live analysis");
+			}
+			
+			if(cmd.hasOption(OPTION_PARTIAL_OUT_FILE) && cmd.hasOption(OPTION_MAX_LATENCY)){
+				throw new ParseException("Partial results include all input events, --max-latency cannot be used with --partial-out");
+			}
+			
+			int queueSize = cmd.hasOption(OPTION_QUEUE_SIZE)? Integer.parseInt(cmd.getOptionValue(OPTION_QUEUE_SIZE)) : CaptureRingBuffer.DEFAULT_CAPACITY;
+			
+			if(queueSize <= 0 || Integer.bitCount(queueSize) != 1){
+				throw new ParseException("Queue size must be a power of 2");
+			}
+			
+			CaptureRingBuffer.WaitStrategy waitStrategy = CaptureRingBuffer.WaitStrategy.PARK;
+			
+			if(cmd.hasOption(OPTION_WAIT_STRATEGY)){
+				String wait = cmd.getOptionValue(OPTION_WAIT_STRATEGY);
+				if(wait.equals("spin")){
+					waitStrategy = CaptureRingBuffer.WaitStrategy.BUSY_SPIN;
+				} else if(wait.equals("yield")){
+					waitStrategy = CaptureRingBuffer.WaitStrategy.YIELD;
+				} else if(!wait.equals("park")){
+					throw new ParseException("Unknown wait strategy: " + wait);
+				}
+			}
+			
+			CaptureRingBuffer.FullPolicy fullPolicy = CaptureRingBuffer.FullPolicy.BLOCK;
+			
+			if(cmd.hasOption(OPTION_ON_FULL)){
+				String onFull = cmd.getOptionValue(OPTION_ON_FULL);
+				if(onFull.equals("drop")){
+					fullPolicy = CaptureRingBuffer.FullPolicy.DROP;
+				} else if(!onFull.equals("block")){
+					throw new ParseException("Unknown queue full policy: " + onFull);
+				}
+			}
+			
+			int reportInterval = cmd.hasOption(OPTION_REPORT_INTERVAL)? Integer.parseInt(cmd.getOptionValue(OPTION_REPORT_INTERVAL)) : 10;
+			
+			int bufferSize = cmd.hasOption(OPTION_BUFFER_SIZE)? Integer.parseInt(cmd.getOptionValue(OPTION_BUFFER_SIZE)) : CaptureOutput.DEFAULT_BUFFER_SIZE;
+			long rotateSize = cmd.hasOption(OPTION_ROTATE_SIZE)? Long.parseLong(cmd.getOptionValue(OPTION_ROTATE_SIZE)) * 1024 * 1024 : 0;
+			
+			if(rotateSize > 0 && !cmd.hasOption(OPTION_OUT_FILE)){
+				throw new ParseException("Rotation requires an output file");
+			}
+			
+			Compression.Codec codec = Compression.Codec.NONE;
+			
+			if(cmd.hasOption(OPTION_COMPRESS)){
+				try {
+					codec = Compression.Codec.parse(cmd.getOptionValue(OPTION_COMPRESS));
+				} catch (IllegalArgumentException e) {
+					throw new ParseException("Unknown compression codec: " + cmd.getOptionValue(OPTION_COMPRESS));
+				}
+				
+				if(!cmd.hasOption(OPTION_OUT_FILE)){
+					throw new ParseException("Compression requires an output file");
+				}
+			}
+			
+			CaptureSink sink = null;
+			
+			if(!format.equals(FORMAT_NONE)){
+				CaptureOutput out = cmd.hasOption(OPTION_OUT_FILE)? new CaptureOutput(cmd.getOptionValue(OPTION_OUT_FILE), bufferSize, rotateSize, codec) : CaptureOutput.stdout(bufferSize);
+				
+				if(cmd.hasOption(OPTION_FLUSH_INTERVAL)){
+					out.setFlushInterval(Long.parseLong(cmd.getOptionValue(OPTION_FLUSH_INTERVAL)));
+				}
+				
+				if(format.equals(FORMAT_BINARY)){
+					sink = new BinaryCaptureWriter(out, topics);
+				} else {
+					sink = new TextCaptureSink(out);
+				}
+			}
+			
+			Stats liveStats = null;
+			LiveStatsSink liveSink = null;
+			ScheduledExecutorService publisher = null;
+			
+			if(cmd.hasOption(OPTION_LIVE_INTERVAL)){
+				long interval = Long.parseLong(cmd.getOptionValue(OPTION_LIVE_INTERVAL));
+				
+				if(interval <= 0){
+					throw new ParseException("Live analysis interval must be positive");
+				}
+				
+				//partial results must not evict input events that other nodes' output events may refer to
+				long maxLatency = cmd.hasOption(OPTION_PARTIAL_OUT_FILE)? 0 : cmd.hasOption(OPTION_MAX_LATENCY)? Long.parseLong(cmd.getOptionValue(OPTION_MAX_LATENCY)) : DEFAULT_LIVE_MAX_LATENCY;
+				
+				if(maxLatency <= 0 && !cmd.hasOption(OPTION_PARTIAL_OUT_FILE)){
+					throw new ParseException("Max latency must be positive");
+				}
+				
+				//stdout may carry the raw log, so live results go to stderr by default
+				String liveOutPath = cmd.getOptionValue(OPTION_LIVE_OUT_FILE);
+				PrintWriter liveWriter = liveOutPath != null? new PrintWriter(new BufferedWriter(new FileWriter(liveOutPath)), true) : new PrintWriter(System.err, true);
+				
+				liveStats = new Stats();
+				liveStats.setEventMetadata(USE_CASE_TRAFFIC.equals(cmd.getOptionValue(OPTION_USE_CASE))? new TrafficEventMetadata() : new CCFEventMetadata());
+				liveStats.setMaxLatency(maxLatency);
+				liveStats.setKeepEventLog(false);
+				//to be merged with the results of other nodes by stats merge
+				liveStats.setPartial(cmd.hasOption(OPTION_PARTIAL_OUT_FILE));
+				//receive timestamps are nearly ordered, a single interval of grace is enough
+				liveStats.setTimeline(new Timeline(interval * 1000, 1, liveWriter, liveOutPath != null && liveOutPath.endsWith(".json")));
+				
+				liveSink = new LiveStatsSink(liveStats, sink);
+				sink = liveSink;
+				
+				//the timeline advances with received messages, publish it on time while the input is idle as well
+				final LiveStatsSink publishedSink = liveSink;
+				publisher = Executors.newSingleThreadScheduledExecutor();
+				publisher.scheduleAtFixedRate(new Runnable() {
+					@Override
+					public void run() {
+						publishedSink.publish(System.currentTimeMillis());
+					}
+				}, interval, interval, TimeUnit.SECONDS);
+			}
+			
+			final CaptureRingBuffer queue = new CaptureRingBuffer(queueSize, CaptureRingBuffer.DEFAULT_SLOT_SIZE, waitStrategy, fullPolicy);
+			
+			final Analyzer analyzer;
+			
+			if(direct){
+				int fetchMinBytes = cmd.hasOption(OPTION_FETCH_MIN_BYTES)? Integer.parseInt(cmd.getOptionValue(OPTION_FETCH_MIN_BYTES)) : 1;
+				int fetchMaxWait = cmd.hasOption(OPTION_FETCH_MAX_WAIT)? Integer.parseInt(cmd.getOptionValue(OPTION_FETCH_MAX_WAIT)) : 100;
+				int maxPartitionFetchBytes = cmd.hasOption(OPTION_MAX_PARTITION_FETCH_BYTES)? Integer.parseInt(cmd.getOptionValue(OPTION_MAX_PARTITION_FETCH_BYTES)) : 1024 * 1024;
+				
+				Properties clientConfig = createClientConfig(cmd.getOptionValue(OPTION_BOOTSTRAP_SERVERS), fetchMinBytes, fetchMaxWait, maxPartitionFetchBytes);
+				analyzer = new Analyzer(clientConfig, topics, from.equals(FROM_EARLIEST), sink, queue, reportInterval);
+			} else {
+				analyzer = new Analyzer(zkConnect, topics, groupId, threadsPerTopic, sink, queue, reportInterval);
+			}
+			final Stats finalStats = liveStats;
+			final LiveStatsSink finalLiveSink = liveSink;
+			final ScheduledExecutorService finalPublisher = publisher;
+			final String partialOutPath = cmd.getOptionValue(OPTION_PARTIAL_OUT_FILE);
+			
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						if(finalPublisher != null){
+							finalPublisher.shutdown();
+							finalPublisher.awaitTermination(10, TimeUnit.SECONDS);
+						}
+						
+						analyzer.shutdown();
+					} catch (InterruptedException e) {
+						return;
+					}
+					
+					if(finalStats != null){
+						if(queue.getDrops() > 0 || finalLiveSink.getNumOfSkippedMessages() > 0){
+							System.err.println(String.format("Warning: %d messages were dropped and %d could not be analyzed", queue.getDrops(), finalLiveSink.getNumOfSkippedMessages()));
+						}
+						
+						Map<String, Object> report = StatsReport.build(finalStats, StatsReport.DEFAULT_PERCENTILES);
+						report.put("dropped_messages", queue.getDrops());
+						report.put("skipped_messages", finalLiveSink.getNumOfSkippedMessages());
+						System.err.println(JSONValue.toJSONString(report));
+					}
+					
+					if(partialOutPath != null){
+						try {
+							PartialResults.write(finalStats, new File(partialOutPath));
+						} catch (IOException e) {
+							System.err.println("Error: could not write partial results: " + e.getMessage());
+						}
+					}
+				}
+			});
 			
-			Analyzer analyzer = new Analyzer(zkConnect, topics, groupId, threadsPerTopic);
 			analyzer.run();
 
 		} catch (ParseException e){
+			System.err.println(e.getMessage());
 			System.err.println(USAGE);
+		} catch (IOException | IllegalArgumentException e){
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
 		}
 	}
 
@@ -0,0 +1,204 @@
+package org.speedd.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads files in the {@link CaptureFormat binary capture format}. Files are
+ * memory-mapped in windows and payloads are passed to the handler as ranges of
+ * the mapped buffer, without copying.
+ *
+ * A record truncated at the end of the capture (e.g. because the capturing
+ * process was killed) is ignored.
+ */
+class BinaryCaptureReader {
+	private final File file;
+
+	private final long windowSize;
+
+	private String[] topics;
+
+	public BinaryCaptureReader(File file) {
+		this(file, MappedLogScanner.DEFAULT_WINDOW_SIZE);
+	}
+
+	public BinaryCaptureReader(File file, long windowSize) {
+		this.file = file;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @return topic names indexed by topic id, available once reading started
+	 */
+	public String[] getTopics() {
+		return topics;
+	}
+
+	/**
+	 * @return true if the file starts with the capture format magic
+	 */
+	public static boolean isCapture(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			byte[] prefix = new byte[CaptureFormat.MAGIC.length];
+			int n = raf.read(prefix);
+			return CaptureFormat.isCapture(prefix, n);
+		} finally {
+			raf.close();
+		}
+	}
+
+	public void read(MappedLogScanner.LineHandler handler) throws IOException {
+		read(0, handler);
+	}
+
+	/**
+	 * Reads the complete records starting at the given offset, which is
+	 * expected to be 0 or the offset of a record. Topics are only known when
+	 * reading from the start.
+	 *
+	 * @return the offset after the last complete record
+	 */
+	public long read(long start, MappedLogScanner.LineHandler handler) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			long position = start;
+
+			if (start == 0) {
+				MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(windowSize, fileSize));
+				topics = CaptureFormat.decodeHeader(header);
+				position = header.position();
+			}
+
+			while (position < fileSize) {
+				long mapEnd = Math.min(position + windowSize, fileSize);
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, mapEnd - position);
+				int limit = buffer.limit();
+
+				int recordStart = 0;
+
+				while (limit - recordStart >= 4) {
+					int length = buffer.getInt(recordStart);
+
+					if (length == CaptureFormat.SYNC_LENGTH) {
+						if (limit - recordStart < CaptureFormat.SYNC_SIZE) {
+							break;
+						}
+						if (buffer.getLong(recordStart + 4) != CaptureFormat.SYNC_MARKER) {
+							throw new IOException(String.format("Corrupt sync marker at offset %d", position + recordStart));
+						}
+						recordStart += CaptureFormat.SYNC_SIZE;
+						continue;
+					}
+
+					if (length < 0) {
+						throw new IOException(String.format("Corrupt record at offset %d", position + recordStart));
+					}
+
+					int payloadStart = recordStart + CaptureFormat.RECORD_HEADER_SIZE;
+
+					if (limit - recordStart < CaptureFormat.RECORD_HEADER_SIZE || limit - payloadStart < length) {
+						break;
+					}
+
+					long timestamp = buffer.getLong(recordStart + 4);
+
+					handler.onLine(timestamp, buffer, payloadStart, payloadStart + length);
+
+					recordStart = payloadStart + length;
+				}
+
+				if (recordStart == 0) {
+					if (mapEnd == fileSize) {
+						// truncated tail
+						break;
+					}
+					throw new IOException(String.format("Record at offset %d is larger than the read window of %d bytes", position, windowSize));
+				}
+
+				position += recordStart;
+			}
+
+			return position;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads a capture from a stream, e.g. when piped into {@link Stats}
+	 *
+	 * @return topic names indexed by topic id
+	 */
+	public static String[] read(InputStream in, MappedLogScanner.LineHandler handler) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+
+		// re-assemble the variable length header so that it is decoded in one place
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+
+		byte[] fixedHeader = new byte[CaptureFormat.MAGIC.length + 1];
+		data.readFully(fixedHeader);
+		header.write(fixedHeader);
+
+		short topicCount = data.readShort();
+		header.writeShort(topicCount);
+
+		for (int i = 0; i < topicCount; ++i) {
+			byte[] name = new byte[data.readShort()];
+			data.readFully(name);
+			header.writeShort(name.length);
+			header.write(name);
+		}
+
+		String[] topics = CaptureFormat.decodeHeader(ByteBuffer.wrap(headerBytes.toByteArray()));
+
+		byte[] payload = new byte[4096];
+
+		try {
+			while (true) {
+				int length = data.readInt();
+
+				if (length == CaptureFormat.SYNC_LENGTH) {
+					if (data.readLong() != CaptureFormat.SYNC_MARKER) {
+						throw new IOException("Corrupt sync marker");
+					}
+					continue;
+				}
+
+				if (length < 0) {
+					throw new IOException("Corrupt record");
+				}
+
+				long timestamp = data.readLong();
+				data.readShort();
+
+				if (payload.length < length) {
+					payload = new byte[Math.max(length, payload.length * 2)];
+				}
+
+				data.readFully(payload, 0, length);
+
+				handler.onLine(timestamp, ByteBuffer.wrap(payload), 0, length);
+			}
+		} catch (EOFException e) {
+			// end of capture, possibly with a truncated last record
+		}
+
+		return topics;
+	}
+}
@@ -0,0 +1,61 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes captured messages in the {@link CaptureFormat binary capture format}
+ */
+public class BinaryCaptureWriter implements CaptureSink {
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private final CaptureOutput out;
+
+	private long bytesSinceSync;
+
+	public BinaryCaptureWriter(WritableByteChannel channel, String[] topics) throws IOException {
+		this(channel, topics, DEFAULT_BUFFER_SIZE);
+	}
+
+	public BinaryCaptureWriter(WritableByteChannel channel, String[] topics, int bufferSize) throws IOException {
+		this(new CaptureOutput(channel, bufferSize), topics);
+	}
+
+	public BinaryCaptureWriter(CaptureOutput out, String[] topics) throws IOException {
+		this.out = out;
+		bytesSinceSync = 0;
+
+		out.setHeader(CaptureFormat.encodeHeader(topics));
+	}
+
+	@Override
+	public void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException {
+		if (bytesSinceSync >= CaptureFormat.SYNC_INTERVAL_BYTES) {
+			ByteBuffer buffer = out.claim(CaptureFormat.SYNC_SIZE);
+			buffer.putInt(CaptureFormat.SYNC_LENGTH);
+			buffer.putLong(CaptureFormat.SYNC_MARKER);
+			bytesSinceSync = 0;
+		}
+
+		ByteBuffer buffer = out.claim(CaptureFormat.RECORD_HEADER_SIZE);
+		buffer.putInt(length);
+		buffer.putLong(timestamp);
+		buffer.putShort((short) topicId);
+
+		out.put(message, offset, length);
+		out.endRecord();
+
+		bytesSinceSync += CaptureFormat.RECORD_HEADER_SIZE + length;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
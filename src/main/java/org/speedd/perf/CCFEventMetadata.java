@@ -8,6 +8,14 @@ import org.speedd.fraud.FraudAggregatedReadingCsv2Event;
 
 public class CCFEventMetadata implements EventMetadata {
 	private static final FraudAggregatedReadingCsv2Event parser = new FraudAggregatedReadingCsv2Event(SpeeddEventFactory.getInstance());
+
+	private static final String[] uniqueAttributes = new String[] {
+			Constants.ATTR_TRANSACTION_ID,
+			Constants.ATTR_CARD_PAN,
+			Constants.ATTR_TERMINAL_ID,
+			Constants.ATTR_ACQUIRER_COUNTRY,
+			Constants.ATTR_CARD_COUNTRY
+	};
 	
 	@Override
 	public EventParser getEventParser() {
@@ -19,4 +27,28 @@ public class CCFEventMetadata implements EventMetadata {
 		return (String)event.getAttributes().get(Constants.ATTR_TRANSACTION_ID);
 	}
 
+	/**
+	 * Transaction ids are 32 hex digits, or UUIDs in generated events, packed
+	 * into the two longs of the key
+	 */
+	@Override
+	public boolean getEventKey(Event event, long[] key) {
+		return EventIdIndex.packHex(getEventId(event), key);
+	}
+
+	@Override
+	public boolean getEventKey(String eventId, long[] key) {
+		return EventIdIndex.packHex(eventId, key);
+	}
+
+	@Override
+	public byte[] toBytes(Event event) {
+		return parser.toBytes(event);
+	}
+
+	@Override
+	public String[] getUniqueAttributes() {
+		return uniqueAttributes;
+	}
+
 }
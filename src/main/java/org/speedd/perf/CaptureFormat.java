@@ -0,0 +1,105 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Binary capture format written by {@link BinaryCaptureWriter} and read by
+ * {@link BinaryCaptureReader}. All values are big-endian.
+ *
+ * <pre>
+ * header:  magic "SPDDCAP" | version (byte) | topic count (short) | topics (short length + UTF-8 name)*
+ * record:  payload length (int) | receive timestamp (long) | topic id (short) | payload
+ * sync:    -1 (int) | sync marker (long)
+ * </pre>
+ *
+ * Sync markers are written periodically between records so that corruption
+ * is detected close to where it happened. A marker starts with 0xFFFFFFFF,
+ * which never occurs in UTF-8 text, so it cannot be confused with text
+ * payload.
+ */
+final class CaptureFormat {
+	public static final byte[] MAGIC = new byte[] { 'S', 'P', 'D', 'D', 'C', 'A', 'P' };
+
+	public static final byte VERSION = 1;
+
+	public static final int SYNC_LENGTH = -1;
+
+	// "SPDDSYNC"
+	public static final long SYNC_MARKER = 0x5350444453594E43L;
+
+	public static final int RECORD_HEADER_SIZE = 4 + 8 + 2;
+
+	public static final int SYNC_SIZE = 4 + 8;
+
+	public static final int SYNC_INTERVAL_BYTES = 1024 * 1024;
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private CaptureFormat() {
+	}
+
+	public static boolean isCapture(byte[] prefix, int length) {
+		return length >= MAGIC.length && Arrays.equals(Arrays.copyOf(prefix, MAGIC.length), MAGIC);
+	}
+
+	public static ByteBuffer encodeHeader(String[] topics) {
+		byte[][] names = new byte[topics.length][];
+		int size = MAGIC.length + 1 + 2;
+
+		for (int i = 0; i < topics.length; ++i) {
+			names[i] = topics[i].getBytes(UTF8);
+			size += 2 + names[i].length;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(size);
+		header.put(MAGIC);
+		header.put(VERSION);
+		header.putShort((short) topics.length);
+
+		for (byte[] name : names) {
+			header.putShort((short) name.length);
+			header.put(name);
+		}
+
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Reads the header at the buffer's position and leaves the position at the
+	 * first record.
+	 *
+	 * @return the topic names, indexed by topic id
+	 */
+	public static String[] decodeHeader(ByteBuffer buffer) throws IOException {
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a capture file");
+			}
+
+			byte version = buffer.get();
+			if (version != VERSION) {
+				throw new IOException("Unsupported capture format version: " + version);
+			}
+
+			String[] topics = new String[buffer.getShort()];
+
+			for (int i = 0; i < topics.length; ++i) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				topics[i] = new String(name, UTF8);
+			}
+
+			return topics;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated capture header");
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.speedd.perf;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered channel output shared by the capture sinks. Records are encoded
+ * into a direct buffer and written to the channel when the buffer fills up,
+ * when the flush interval elapsed since the last write, or on
+ * {@link #flush()}.
+ *
+ * When writing to a file, the output can be rotated: once the current file
+ * reached the rotation size, the next record starts a new file named
+ * "&lt;path&gt;.&lt;n&gt;". Files are only rotated on record boundaries and each
+ * file starts with the header, if one was set, so every file can be analyzed
+ * on its own.
+ *
+ * Files can be compressed on a pipeline thread, see {@link Compression}. The
+ * rotation size then refers to the uncompressed data.
+ */
+public class CaptureOutput {
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	// large enough for any record header
+	private static final int MIN_BUFFER_SIZE = 64;
+
+	private final String path;
+
+	private final long rotateSize;
+
+	private final Compression.Codec codec;
+
+	// the compressing stream behind the channel, null when not compressing
+	private OutputStream stream;
+
+	private final ByteBuffer buffer;
+
+	private WritableByteChannel channel;
+
+	private ByteBuffer header;
+
+	private int fileIndex;
+
+	private long bytesInFile;
+
+	private long flushIntervalNanos;
+
+	private long lastFlush;
+
+	/**
+	 * Writes to the given channel, without rotation
+	 */
+	public CaptureOutput(WritableByteChannel channel, int bufferSize) {
+		this.path = null;
+		this.rotateSize = 0;
+		this.codec = Compression.Codec.NONE;
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+		init();
+	}
+
+	/**
+	 * Writes to a file, rotating it every rotateSize bytes (0 for no rotation)
+	 */
+	public CaptureOutput(String path, int bufferSize, long rotateSize) throws IOException {
+		this(path, bufferSize, rotateSize, Compression.Codec.NONE);
+	}
+
+	/**
+	 * Writes to a compressed file, rotating it every rotateSize bytes of
+	 * uncompressed data (0 for no rotation)
+	 */
+	public CaptureOutput(String path, int bufferSize, long rotateSize, Compression.Codec codec) throws IOException {
+		this.path = path;
+		this.rotateSize = rotateSize;
+		this.codec = codec;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+		open(rotateSize > 0 ? fileName(0) : path);
+		init();
+	}
+
+	/**
+	 * Writes to the process' standard output, bypassing System.out
+	 */
+	public static CaptureOutput stdout(int bufferSize) {
+		return new CaptureOutput(new FileOutputStream(FileDescriptor.out).getChannel(), bufferSize);
+	}
+
+	private void init() {
+		fileIndex = 0;
+		bytesInFile = 0;
+		flushIntervalNanos = DEFAULT_FLUSH_INTERVAL * 1000000;
+		lastFlush = System.nanoTime();
+	}
+
+	/**
+	 * Sets the maximal time records may stay in the buffer, 0 to only flush on
+	 * a full buffer or an explicit flush
+	 */
+	public void setFlushInterval(long millis) {
+		flushIntervalNanos = millis * 1000000;
+	}
+
+	/**
+	 * Sets the header written at the start of every file and writes it to the
+	 * current one
+	 */
+	public void setHeader(ByteBuffer header) throws IOException {
+		this.header = header.duplicate();
+		writeHeader();
+	}
+
+	/**
+	 * @return the buffer, with at least size bytes remaining. size must not
+	 *         exceed the buffer capacity.
+	 */
+	public ByteBuffer claim(int size) throws IOException {
+		if (buffer.remaining() < size) {
+			flushBuffer();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Copies bytes into the buffer, flushing as many times as needed
+	 */
+	public void put(byte[] data, int offset, int length) throws IOException {
+		while (length > buffer.remaining()) {
+			int chunk = buffer.remaining();
+			buffer.put(data, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+			flushBuffer();
+		}
+		buffer.put(data, offset, length);
+	}
+
+	/**
+	 * Called by the sinks after each complete record
+	 */
+	public void endRecord() throws IOException {
+		if (rotateSize > 0 && bytesInFile + buffer.position() >= rotateSize) {
+			rotate();
+		} else if (flushIntervalNanos > 0 && System.nanoTime() - lastFlush >= flushIntervalNanos) {
+			flush();
+		}
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+
+		if (stream != null) {
+			stream.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		flushBuffer();
+		channel.close();
+	}
+
+	private void rotate() throws IOException {
+		flushBuffer();
+		channel.close();
+
+		fileIndex++;
+		bytesInFile = 0;
+		open(fileName(fileIndex));
+
+		writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+		if (header != null) {
+			flushBuffer();
+			ByteBuffer data = header.duplicate();
+			bytesInFile += data.remaining();
+			writeFully(data);
+		}
+	}
+
+	private void open(String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+
+		if (codec == Compression.Codec.NONE) {
+			channel = out.getChannel();
+		} else {
+			stream = Compression.compress(out, codec);
+			channel = Channels.newChannel(stream);
+		}
+	}
+
+	private String fileName(int index) {
+		return String.format("%s.%d", path, index);
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		bytesInFile += buffer.remaining();
+		writeFully(buffer);
+		buffer.clear();
+		lastFlush = System.nanoTime();
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+}
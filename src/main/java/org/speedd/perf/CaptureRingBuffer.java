@@ -0,0 +1,211 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer ring buffer of captured messages.
+ *
+ * Slots are preallocated and message bytes are copied into a per-slot buffer
+ * that only grows when a larger message arrives, so steady-state capture does
+ * not allocate. When the buffer is full, producers either wait for the
+ * consumer (backpressure) or drop the message and count it.
+ */
+public class CaptureRingBuffer {
+	public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+	public static final int DEFAULT_SLOT_SIZE = 1024;
+
+	public static enum WaitStrategy {
+		BUSY_SPIN {
+			@Override
+			public void idle() {
+			}
+		},
+		YIELD {
+			@Override
+			public void idle() {
+				Thread.yield();
+			}
+		},
+		PARK {
+			@Override
+			public void idle() {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		};
+
+		private static final long PARK_NANOS = 100 * 1000;
+
+		public abstract void idle();
+	}
+
+	public static enum FullPolicy {
+		BLOCK, DROP
+	}
+
+	private final int capacity;
+
+	private final int mask;
+
+	private final long[] timestamps;
+
+	private final int[] topicIds;
+
+	private final byte[][] messages;
+
+	private final int[] lengths;
+
+	// sequence + 1 of the message published in each slot
+	private final AtomicLongArray published;
+
+	// next sequence to be claimed by a producer
+	private final AtomicLong head;
+
+	// next sequence to be consumed
+	private final AtomicLong tail;
+
+	private final AtomicLong drops;
+
+	private final WaitStrategy waitStrategy;
+
+	private final FullPolicy fullPolicy;
+
+	private volatile long maxDepth;
+
+	public CaptureRingBuffer() {
+		this(DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE, WaitStrategy.PARK, FullPolicy.BLOCK);
+	}
+
+	public CaptureRingBuffer(int capacity, int slotSize, WaitStrategy waitStrategy, FullPolicy fullPolicy) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Ring buffer capacity must be a power of 2");
+		}
+
+		this.capacity = capacity;
+		this.waitStrategy = waitStrategy;
+		this.fullPolicy = fullPolicy;
+		mask = capacity - 1;
+
+		timestamps = new long[capacity];
+		topicIds = new int[capacity];
+		lengths = new int[capacity];
+		messages = new byte[capacity][];
+		for (int i = 0; i < capacity; ++i) {
+			messages[i] = new byte[slotSize];
+		}
+
+		published = new AtomicLongArray(capacity);
+		head = new AtomicLong(0);
+		tail = new AtomicLong(0);
+		drops = new AtomicLong(0);
+		maxDepth = 0;
+	}
+
+	/**
+	 * Copies the message into the next free slot. May be called from any
+	 * number of threads.
+	 *
+	 * @return false if the message was dropped because the buffer was full
+	 */
+	public boolean offer(long timestamp, int topicId, byte[] message, int offset, int length) {
+		long sequence;
+
+		while (true) {
+			sequence = head.get();
+
+			if (sequence - tail.get() >= capacity) {
+				if (fullPolicy == FullPolicy.DROP) {
+					drops.incrementAndGet();
+					return false;
+				}
+				waitStrategy.idle();
+				continue;
+			}
+
+			if (head.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
+
+		int slot = (int) sequence & mask;
+
+		if (messages[slot].length < length) {
+			messages[slot] = new byte[Math.max(length, 2 * messages[slot].length)];
+		}
+
+		System.arraycopy(message, offset, messages[slot], 0, length);
+		lengths[slot] = length;
+		timestamps[slot] = timestamp;
+		topicIds[slot] = topicId;
+
+		published.lazySet(slot, sequence + 1);
+
+		return true;
+	}
+
+	/**
+	 * Writes up to maxBatch published messages to the sink, in claim order.
+	 * Must only be called from the single consumer thread.
+	 *
+	 * @return number of messages written
+	 */
+	public int drain(CaptureSink sink, int maxBatch) throws IOException {
+		long sequence = tail.get();
+		long depth = head.get() - sequence;
+
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+
+		int count = 0;
+
+		while (count < maxBatch) {
+			int slot = (int) sequence & mask;
+
+			if (published.get(slot) != sequence + 1) {
+				break;
+			}
+
+			sink.write(timestamps[slot], topicIds[slot], messages[slot], 0, lengths[slot]);
+
+			sequence++;
+			count++;
+		}
+
+		if (count > 0) {
+			tail.lazySet(sequence);
+		}
+
+		return count;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of claimed messages not consumed yet
+	 */
+	public long getDepth() {
+		return Math.max(0, head.get() - tail.get());
+	}
+
+	public long getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getDrops() {
+		return drops.get();
+	}
+
+	public long getConsumed() {
+		return tail.get();
+	}
+}
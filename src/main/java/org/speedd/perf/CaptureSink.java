@@ -0,0 +1,12 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+
+/**
+ * Destination of messages captured by {@link Analyzer}
+ */
+public interface CaptureSink {
+	public void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException;
+	public void flush() throws IOException;
+	public void close() throws IOException;
+}
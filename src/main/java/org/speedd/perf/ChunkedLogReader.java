@@ -0,0 +1,175 @@
+package org.speedd.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.speedd.kafka.JsonEventDecoder;
+import org.speedd.perf.Stats.LogEntry;
+
+/**
+ * Splits a log file into newline-aligned chunks and decodes them on a
+ * fork-join pool. Decoded chunks are handed back to {@link Stats} strictly in
+ * file order, so derived events are always joined against every input event
+ * logged before them, regardless of the chunk the input event was decoded in.
+ * At most a bounded window of chunks is decoded ahead of the one being applied.
+ */
+class ChunkedLogReader {
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+
+	private final int parallelism;
+
+	private final int chunkSize;
+
+	private final Stats stats;
+
+	private class ChunkTask extends RecursiveTask<List<LogEntry>> {
+		private static final long serialVersionUID = 1L;
+
+		private final long start;
+
+		private final long end;
+
+		public ChunkTask(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected List<LogEntry> compute() {
+			try {
+				return decodeChunk(start, end);
+			} catch (IOException e) {
+				throw new ChunkReadException(e);
+			}
+		}
+	}
+
+	private static class ChunkReadException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public ChunkReadException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	public ChunkedLogReader(File file, int parallelism, Stats stats) {
+		this(file, parallelism, DEFAULT_CHUNK_SIZE, stats);
+	}
+
+	public ChunkedLogReader(File file, int parallelism, int chunkSize, Stats stats) {
+		this.file = file;
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+		this.stats = stats;
+	}
+
+	public void read() throws IOException {
+		List<Long> boundaries = findChunkBoundaries();
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try {
+			ArrayDeque<ForkJoinTask<List<LogEntry>>> window = new ArrayDeque<ForkJoinTask<List<LogEntry>>>();
+			int maxInFlight = 2 * parallelism;
+			int next = 0;
+
+			while (next < boundaries.size() - 1 || !window.isEmpty()) {
+				while (window.size() < maxInFlight && next < boundaries.size() - 1) {
+					window.add(pool.submit(new ChunkTask(boundaries.get(next), boundaries.get(next + 1))));
+					next++;
+				}
+
+				for (LogEntry entry : window.poll().join()) {
+					stats.processEntry(entry);
+				}
+			}
+		} catch (ChunkReadException e) {
+			//the pool may rethrow a copy wrapping the original exception
+			Throwable cause = e;
+			while (!(cause instanceof IOException)) {
+				cause = cause.getCause();
+			}
+			throw (IOException) cause;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return chunk start offsets, each at the beginning of a line, followed
+	 *         by the file length
+	 */
+	private List<Long> findChunkBoundaries() throws IOException {
+		List<Long> boundaries = new ArrayList<Long>();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+			long position = 0;
+
+			while (position < length) {
+				boundaries.add(position);
+
+				position = nextLineStart(channel, position + chunkSize, length, buffer);
+			}
+
+			boundaries.add(length);
+		} finally {
+			raf.close();
+		}
+
+		return boundaries;
+	}
+
+	private static long nextLineStart(FileChannel channel, long position, long length, ByteBuffer buffer) throws IOException {
+		while (position < length) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+
+			for (int i = 0; i < n; ++i) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+
+			position += n;
+		}
+
+		return length;
+	}
+
+	private List<LogEntry> decodeChunk(long start, long end) throws IOException {
+		final List<LogEntry> entries = new ArrayList<LogEntry>();
+		final JsonEventDecoder decoder = new JsonEventDecoder();
+
+		new MappedLogScanner(file).scan(start, end, new MappedLogScanner.LineHandler() {
+			@Override
+			public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+				LogEntry entry = stats.parseEntry(timestamp, buffer, payloadStart, payloadEnd, decoder);
+
+				if (entry != null) {
+					entries.add(entry);
+				}
+			}
+		});
+
+		return entries;
+	}
+}
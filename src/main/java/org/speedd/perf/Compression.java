@@ -0,0 +1,292 @@
+package org.speedd.perf;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+/**
+ * Block-compressed streams for generated events and capture logs.
+ *
+ * Output is compressed on a separate pipeline thread: the writer only copies
+ * data into a block and hands full blocks over, so compression overlaps with
+ * event generation or capture. Input is recognized by its magic, so readers
+ * accept compressed and plain files alike.
+ */
+public class Compression {
+	public static enum Codec {
+		NONE, GZIP, LZ4;
+
+		/**
+		 * @throws IllegalArgumentException
+		 *             for an unknown codec name
+		 */
+		public static Codec parse(String name) {
+			return valueOf(name.toUpperCase());
+		}
+	}
+
+	static final int BLOCK_SIZE = 256 * 1024;
+
+	// blocks in flight between the writer and the compressing thread
+	private static final int NUM_OF_BLOCKS = 4;
+
+	private static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+
+	private static final byte[] LZ4_MAGIC = { 'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k' };
+
+	private Compression() {
+	}
+
+	/**
+	 * @return a stream compressing into out on a pipeline thread, or out
+	 *         itself for {@link Codec#NONE}. Closing the returned stream
+	 *         closes out.
+	 */
+	public static OutputStream compress(OutputStream out, Codec codec) throws IOException {
+		switch (codec) {
+		case GZIP:
+			return new PipelinedOutputStream(new GZIPOutputStream(out, BLOCK_SIZE, true));
+		case LZ4:
+			return new PipelinedOutputStream(new LZ4BlockOutputStream(out, BLOCK_SIZE));
+		default:
+			return out;
+		}
+	}
+
+	/**
+	 * @return a stream decompressing in if it starts with the magic of a
+	 *         supported codec, otherwise a buffered stream of the plain data
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BLOCK_SIZE);
+
+		switch (detect(buffered)) {
+		case GZIP:
+			return new BufferedInputStream(new GZIPInputStream(buffered, BLOCK_SIZE), BLOCK_SIZE);
+		case LZ4:
+			return new BufferedInputStream(new LZ4BlockInputStream(buffered), BLOCK_SIZE);
+		default:
+			return buffered;
+		}
+	}
+
+	public static boolean isCompressed(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), LZ4_MAGIC.length);
+
+		try {
+			return detect(in) != Codec.NONE;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Peeks at the start of the stream, which must support mark
+	 */
+	static Codec detect(InputStream in) throws IOException {
+		byte[] prefix = new byte[LZ4_MAGIC.length];
+		in.mark(prefix.length);
+
+		int length = 0;
+		int n;
+		while (length < prefix.length && (n = in.read(prefix, length, prefix.length - length)) > 0) {
+			length += n;
+		}
+
+		in.reset();
+
+		if (startsWith(prefix, length, GZIP_MAGIC)) {
+			return Codec.GZIP;
+		}
+
+		if (startsWith(prefix, length, LZ4_MAGIC)) {
+			return Codec.LZ4;
+		}
+
+		return Codec.NONE;
+	}
+
+	private static boolean startsWith(byte[] prefix, int length, byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+
+		for (int i = 0; i < magic.length; ++i) {
+			if (prefix[i] != magic[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Hands blocks of written data to a thread writing them to the target
+	 * stream. flush() does not wait for the target to be flushed, but errors
+	 * of the pipeline thread are rethrown by the next write, flush or close.
+	 */
+	static class PipelinedOutputStream extends OutputStream {
+		private static class Block {
+			final byte[] data = new byte[BLOCK_SIZE];
+			int length;
+			boolean flush;
+			boolean last;
+		}
+
+		private final OutputStream target;
+
+		private final BlockingQueue<Block> free;
+
+		private final BlockingQueue<Block> full;
+
+		private final Thread thread;
+
+		private Block current;
+
+		private volatile IOException error;
+
+		private boolean closed;
+
+		public PipelinedOutputStream(OutputStream target) {
+			this.target = target;
+			free = new ArrayBlockingQueue<Block>(NUM_OF_BLOCKS);
+			full = new ArrayBlockingQueue<Block>(NUM_OF_BLOCKS);
+
+			for (int i = 0; i < NUM_OF_BLOCKS - 1; ++i) {
+				free.add(new Block());
+			}
+			current = new Block();
+
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeBlocks();
+				}
+			}, "compressor");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void writeBlocks() {
+			try {
+				boolean done = false;
+
+				while (!done) {
+					Block block = full.take();
+
+					if (error == null) {
+						try {
+							target.write(block.data, 0, block.length);
+
+							if (block.flush) {
+								target.flush();
+							}
+						} catch (IOException e) {
+							//keep taking blocks so the writer does not block forever
+							error = e;
+						}
+					}
+
+					done = block.last;
+					block.length = 0;
+					block.flush = false;
+					free.put(block);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ensureOpen();
+
+			if (current.length == BLOCK_SIZE) {
+				handOver(false);
+			}
+			current.data[current.length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ensureOpen();
+
+			while (len > 0) {
+				if (current.length == BLOCK_SIZE) {
+					handOver(false);
+				}
+
+				int chunk = Math.min(len, BLOCK_SIZE - current.length);
+				System.arraycopy(b, off, current.data, current.length, chunk);
+				current.length += chunk;
+				off += chunk;
+				len -= chunk;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ensureOpen();
+			handOver(true);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			current.flush = true;
+			current.last = true;
+
+			try {
+				//the pipeline thread keeps taking blocks after an error, so this cannot block forever
+				full.put(current);
+				current = null;
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for the compressor", e);
+			} finally {
+				target.close();
+			}
+
+			checkError();
+		}
+
+		private void handOver(boolean flush) throws IOException {
+			checkError();
+
+			current.flush = flush;
+
+			try {
+				full.put(current);
+				current = free.take();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while handing over a block", e);
+			}
+		}
+
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+		}
+
+		private void checkError() throws IOException {
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+}
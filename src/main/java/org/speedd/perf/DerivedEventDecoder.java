@@ -0,0 +1,420 @@
+package org.speedd.perf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.speedd.data.Event;
+
+/**
+ * Extracts only the fields latency analysis needs from a derived event in
+ * JSON, without materializing the event and its attribute map: the name, the
+ * timestamp, and the "EventId", "transaction_ids" and "timestamps"
+ * attributes. All other values are skipped over.
+ *
+ * The scan gives up on anything it does not expect - escaped or non-ASCII
+ * strings in the extracted fields, non-integer timestamps, a missing field -
+ * so that the caller falls back to full decoding.
+ */
+class DerivedEventDecoder {
+	static final String ATTR_EVENT_ID = "EventId";
+
+	static final String ATTR_CONTRIBUTING_IDS = "transaction_ids";
+
+	static final String ATTR_CONTRIBUTING_TIMESTAMPS = "timestamps";
+
+	private static final String[] EMPTY_IDS = new String[0];
+
+	private static final long[] EMPTY_TIMESTAMPS = new long[0];
+
+	/**
+	 * The fields of a derived event used by the analysis
+	 */
+	static class DerivedEvent {
+		String name;
+
+		// time the event was derived at
+		long timestamp;
+
+		String eventId;
+
+		String[] contributingIds;
+
+		// internal timestamps of the contributing events
+		long[] contributingTimestamps;
+	}
+
+	private static class MalformedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public MalformedException() {
+			//thrown on a hot path for control flow only
+			super(null, null, false, false);
+		}
+	}
+
+	private static final MalformedException MALFORMED = new MalformedException();
+
+	private final ByteBuffer buffer;
+
+	private final int end;
+
+	private int pos;
+
+	private DerivedEventDecoder(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the derived event or null if the JSON object in the range is
+	 *         not a derived event in the expected form
+	 */
+	static DerivedEvent decode(ByteBuffer buffer, int start, int end) {
+		try {
+			return new DerivedEventDecoder(buffer, start, end).decodeEvent();
+		} catch (MalformedException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Extracts the fields from a fully decoded event, where contributing
+	 * timestamps may be encoded as strings or numbers
+	 *
+	 * @return the derived event or null if the event has no contributing
+	 *         timestamps
+	 */
+	static DerivedEvent fromEvent(Event event, String eventId) {
+		Object[] ids = (Object[]) event.getAttributes().get(ATTR_CONTRIBUTING_IDS);
+		Object[] timestamps = (Object[]) event.getAttributes().get(ATTR_CONTRIBUTING_TIMESTAMPS);
+
+		if (timestamps == null) {
+			return null;
+		}
+
+		DerivedEvent derived = new DerivedEvent();
+		derived.name = event.getEventName();
+		derived.timestamp = event.getTimestamp();
+		derived.eventId = eventId;
+		derived.contributingIds = EMPTY_IDS;
+		derived.contributingTimestamps = new long[timestamps.length];
+
+		if (ids != null) {
+			derived.contributingIds = new String[ids.length];
+			for (int i = 0; i < ids.length; ++i) {
+				derived.contributingIds[i] = (String) ids[i];
+			}
+		}
+
+		for (int i = 0; i < timestamps.length; ++i) {
+			if (timestamps[i] instanceof String) {
+				derived.contributingTimestamps[i] = Long.parseLong((String) timestamps[i]);
+			} else {
+				derived.contributingTimestamps[i] = ((Number) timestamps[i]).longValue();
+			}
+		}
+
+		return derived;
+	}
+
+	private DerivedEvent decodeEvent() throws MalformedException {
+		DerivedEvent derived = new DerivedEvent();
+		boolean hasTimestamp = false;
+		boolean hasAttributes = false;
+
+		expect('{');
+
+		if (!consume('}')) {
+			do {
+				int keyStart = stringStart();
+				int keyEnd = stringEnd(keyStart);
+				expect(':');
+
+				if (matches(keyStart, keyEnd, "timestamp")) {
+					derived.timestamp = readLong();
+					hasTimestamp = true;
+				} else if (matches(keyStart, keyEnd, "name")) {
+					derived.name = readString();
+				} else if (matches(keyStart, keyEnd, "attributes")) {
+					decodeAttributes(derived);
+					hasAttributes = true;
+				} else {
+					skipValue();
+				}
+			} while (consume(','));
+
+			expect('}');
+		}
+
+		if (!hasTimestamp || !hasAttributes || derived.name == null || derived.eventId == null
+				|| derived.contributingIds == null || derived.contributingTimestamps == null) {
+			throw MALFORMED;
+		}
+
+		return derived;
+	}
+
+	private void decodeAttributes(DerivedEvent derived) throws MalformedException {
+		expect('{');
+
+		if (consume('}')) {
+			return;
+		}
+
+		do {
+			int keyStart = stringStart();
+			int keyEnd = stringEnd(keyStart);
+			expect(':');
+
+			if (matches(keyStart, keyEnd, ATTR_CONTRIBUTING_TIMESTAMPS)) {
+				derived.contributingTimestamps = readTimestamps();
+			} else if (matches(keyStart, keyEnd, ATTR_CONTRIBUTING_IDS)) {
+				derived.contributingIds = readStrings();
+			} else if (matches(keyStart, keyEnd, ATTR_EVENT_ID)) {
+				derived.eventId = readString();
+			} else {
+				skipValue();
+			}
+		} while (consume(','));
+
+		expect('}');
+	}
+
+	/**
+	 * Reads an array of timestamps, each either a number or a string holding
+	 * a number
+	 */
+	private long[] readTimestamps() throws MalformedException {
+		expect('[');
+
+		if (consume(']')) {
+			return EMPTY_TIMESTAMPS;
+		}
+
+		long[] timestamps = new long[4];
+		int count = 0;
+
+		do {
+			if (count == timestamps.length) {
+				long[] grown = new long[2 * count];
+				System.arraycopy(timestamps, 0, grown, 0, count);
+				timestamps = grown;
+			}
+
+			skipWhitespace();
+
+			if (pos < end && buffer.get(pos) == '"') {
+				pos++;
+				timestamps[count++] = parseLong();
+				if (pos >= end || buffer.get(pos) != '"') {
+					throw MALFORMED;
+				}
+				pos++;
+			} else {
+				timestamps[count++] = parseLong();
+			}
+		} while (consume(','));
+
+		expect(']');
+
+		if (count == timestamps.length) {
+			return timestamps;
+		}
+
+		long[] result = new long[count];
+		System.arraycopy(timestamps, 0, result, 0, count);
+		return result;
+	}
+
+	private String[] readStrings() throws MalformedException {
+		expect('[');
+
+		if (consume(']')) {
+			return EMPTY_IDS;
+		}
+
+		ArrayList<String> strings = new ArrayList<String>(4);
+
+		do {
+			strings.add(readString());
+		} while (consume(','));
+
+		expect(']');
+
+		return strings.toArray(new String[strings.size()]);
+	}
+
+	private long readLong() throws MalformedException {
+		skipWhitespace();
+		return parseLong();
+	}
+
+	private long parseLong() throws MalformedException {
+		boolean negative = pos < end && buffer.get(pos) == '-';
+		if (negative) {
+			pos++;
+		}
+
+		int start = pos;
+		long value = 0;
+
+		while (pos < end) {
+			byte b = buffer.get(pos);
+			if (b < '0' || b > '9') {
+				break;
+			}
+			value = value * 10 + (b - '0');
+			pos++;
+		}
+
+		// no digits, more than fit a long for sure, or a fraction or exponent
+		if (pos == start || pos - start > 18 || (pos < end && (buffer.get(pos) == '.' || buffer.get(pos) == 'e' || buffer.get(pos) == 'E'))) {
+			throw MALFORMED;
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads an ASCII string without escapes
+	 */
+	private String readString() throws MalformedException {
+		int start = stringStart();
+		int stringEnd = stringEnd(start);
+
+		char[] chars = new char[stringEnd - start];
+
+		for (int i = start; i < stringEnd; ++i) {
+			byte b = buffer.get(i);
+			if (b < 0 || b == '\\') {
+				throw MALFORMED;
+			}
+			chars[i - start] = (char) b;
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * @return the position after the opening quote
+	 */
+	private int stringStart() throws MalformedException {
+		expect('"');
+		return pos;
+	}
+
+	/**
+	 * Moves past the closing quote
+	 *
+	 * @return the position of the closing quote
+	 */
+	private int stringEnd(int start) throws MalformedException {
+		for (pos = start; pos < end; ++pos) {
+			byte b = buffer.get(pos);
+
+			if (b == '\\') {
+				pos++;
+			} else if (b == '"') {
+				return pos++;
+			}
+		}
+
+		throw MALFORMED;
+	}
+
+	private void skipValue() throws MalformedException {
+		skipWhitespace();
+
+		if (pos >= end) {
+			throw MALFORMED;
+		}
+
+		byte b = buffer.get(pos);
+
+		if (b == '"') {
+			stringEnd(pos + 1);
+		} else if (b == '{' || b == '[') {
+			skipNested();
+		} else {
+			// number or literal
+			int start = pos;
+			while (pos < end) {
+				b = buffer.get(pos);
+				if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+					break;
+				}
+				pos++;
+			}
+			if (pos == start) {
+				throw MALFORMED;
+			}
+		}
+	}
+
+	private void skipNested() throws MalformedException {
+		int depth = 0;
+
+		while (pos < end) {
+			byte b = buffer.get(pos);
+
+			if (b == '"') {
+				stringEnd(pos + 1);
+				continue;
+			}
+
+			pos++;
+
+			if (b == '{' || b == '[') {
+				depth++;
+			} else if (b == '}' || b == ']') {
+				if (--depth == 0) {
+					return;
+				}
+			}
+		}
+
+		throw MALFORMED;
+	}
+
+	private boolean matches(int start, int stringEnd, String key) {
+		if (stringEnd - start != key.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < key.length(); ++i) {
+			if (buffer.get(start + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void expect(char c) throws MalformedException {
+		if (!consume(c)) {
+			throw MALFORMED;
+		}
+	}
+
+	private boolean consume(char c) {
+		skipWhitespace();
+
+		if (pos < end && buffer.get(pos) == c) {
+			pos++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while (pos < end) {
+			byte b = buffer.get(pos);
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return;
+			}
+			pos++;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package org.speedd.perf;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Index of input event timestamps by event id.
+ *
+ * Events are indexed by a key of two longs, usually provided by
+ * {@link EventMetadata#getEventKey}, and kept in an open-addressing table of
+ * primitive slots, so indexing an event allocates nothing. The table may be
+ * kept off-heap. Ids given as strings are packed if they are 32 lowercase hex
+ * digits (e.g. transaction ids) or a UUID in its canonical dashed form (e.g.
+ * generated ids), any other string id falls back to a regular map.
+ */
+class EventIdIndex {
+	public static final long MISSING = Long.MIN_VALUE;
+
+	private static final int SLOT_SIZE = 3;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final double MAX_LOAD_FACTOR = 0.75;
+
+	// the table is addressed by int positions
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+
+	private final boolean offHeap;
+
+	// slot i holds [hi, lo, value]; a slot is free iff its value is MISSING
+	private LongBuffer table;
+
+	private int capacity;
+
+	private int packedSize;
+
+	private final Map<String, Long> fallback;
+
+	private final long[] key = new long[2];
+
+	public EventIdIndex() {
+		this(false);
+	}
+
+	public EventIdIndex(boolean offHeap) {
+		this.offHeap = offHeap;
+		fallback = new HashMap<String, Long>();
+		table = allocate(INITIAL_CAPACITY);
+		capacity = INITIAL_CAPACITY;
+		packedSize = 0;
+	}
+
+	private LongBuffer allocate(int slots) {
+		LongBuffer buffer;
+
+		if (offHeap) {
+			long bytes = (long) slots * SLOT_SIZE * 8;
+
+			if (bytes > Integer.MAX_VALUE) {
+				throw new IllegalStateException(String.format("Off-heap event id index of %d slots exceeds the maximum buffer size of %d bytes, use the on-heap index", slots, Integer.MAX_VALUE));
+			}
+
+			buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			buffer = LongBuffer.wrap(new long[slots * SLOT_SIZE]);
+		}
+
+		for (int i = 0; i < slots; ++i) {
+			buffer.put(i * SLOT_SIZE + 2, MISSING);
+		}
+
+		return buffer;
+	}
+
+	public void put(String id, long value) {
+		if (packHex(id, key)) {
+			put(key[0], key[1], value);
+		} else {
+			fallback.put(id, value);
+		}
+	}
+
+	public void put(long hi, long lo, long value) {
+		if (packedSize + 1 > capacity * MAX_LOAD_FACTOR) {
+			if (capacity > MAX_CAPACITY / 2) {
+				throw new IllegalStateException(String.format("Event id index cannot hold more than %d entries", (long) (capacity * MAX_LOAD_FACTOR)));
+			}
+			rehash(capacity * 2);
+		}
+		if (insert(table, capacity, hi, lo, value)) {
+			packedSize++;
+		}
+	}
+
+	/**
+	 * @return the value indexed for the id, or {@link #MISSING}
+	 */
+	public long get(String id) {
+		if (packHex(id, key)) {
+			return get(key[0], key[1]);
+		}
+
+		Long value = fallback.get(id);
+		return value == null ? MISSING : value;
+	}
+
+	/**
+	 * @return the value indexed for the key, or {@link #MISSING}
+	 */
+	public long get(long hi, long lo) {
+		int slot = find(hi, lo);
+		return slot < 0 ? MISSING : table.get(slot * SLOT_SIZE + 2);
+	}
+
+	public boolean containsKey(String id) {
+		return get(id) != MISSING;
+	}
+
+	public int size() {
+		return packedSize + fallback.size();
+	}
+
+	/**
+	 * Writes all entries, to be restored by {@link #read(DataInput, boolean)}
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(packedSize);
+
+		for (int i = 0; i < capacity; ++i) {
+			long value = table.get(i * SLOT_SIZE + 2);
+			if (value != MISSING) {
+				out.writeLong(table.get(i * SLOT_SIZE));
+				out.writeLong(table.get(i * SLOT_SIZE + 1));
+				out.writeLong(value);
+			}
+		}
+
+		out.writeInt(fallback.size());
+
+		for (Map.Entry<String, Long> entry : fallback.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue());
+		}
+	}
+
+	public static EventIdIndex read(DataInput in, boolean offHeap) throws IOException {
+		final EventIdIndex index = new EventIdIndex(offHeap);
+
+		scan(in, new EntryHandler() {
+			@Override
+			public void onEntry(long hi, long lo, long value) {
+				index.put(hi, lo, value);
+			}
+
+			@Override
+			public void onEntry(String id, long value) {
+				index.fallback.put(id, value);
+			}
+		});
+
+		return index;
+	}
+
+	public static interface EntryHandler {
+		public void onEntry(long hi, long lo, long value);
+
+		public void onEntry(String id, long value);
+	}
+
+	/**
+	 * Passes the entries written by {@link #write(DataOutput)} to the handler
+	 * without building an index
+	 */
+	public static void scan(DataInput in, EntryHandler handler) throws IOException {
+		int packed = in.readInt();
+		for (int i = 0; i < packed; ++i) {
+			handler.onEntry(in.readLong(), in.readLong(), in.readLong());
+		}
+
+		int fallback = in.readInt();
+		for (int i = 0; i < fallback; ++i) {
+			handler.onEntry(in.readUTF(), in.readLong());
+		}
+	}
+
+	/**
+	 * Removes all entries whose value is below the threshold.
+	 *
+	 * @return number of entries removed
+	 */
+	public long evictOlderThan(long threshold) {
+		long removed = 0;
+
+		for (Iterator<Long> it = fallback.values().iterator(); it.hasNext();) {
+			if (it.next() < threshold) {
+				it.remove();
+				removed++;
+			}
+		}
+
+		int survivors = 0;
+		for (int i = 0; i < capacity; ++i) {
+			long value = table.get(i * SLOT_SIZE + 2);
+			if (value != MISSING && value >= threshold) {
+				survivors++;
+			}
+		}
+
+		if (survivors == packedSize) {
+			return removed;
+		}
+
+		removed += packedSize - survivors;
+
+		int newCapacity = INITIAL_CAPACITY;
+		while (newCapacity < capacity && survivors + 1 > newCapacity * MAX_LOAD_FACTOR / 2) {
+			newCapacity *= 2;
+		}
+
+		LongBuffer newTable = allocate(newCapacity);
+		for (int i = 0; i < capacity; ++i) {
+			long value = table.get(i * SLOT_SIZE + 2);
+			if (value != MISSING && value >= threshold) {
+				insert(newTable, newCapacity, table.get(i * SLOT_SIZE), table.get(i * SLOT_SIZE + 1), value);
+			}
+		}
+
+		table = newTable;
+		capacity = newCapacity;
+		packedSize = survivors;
+
+		return removed;
+	}
+
+	private void rehash(int newCapacity) {
+		LongBuffer newTable = allocate(newCapacity);
+
+		for (int i = 0; i < capacity; ++i) {
+			long value = table.get(i * SLOT_SIZE + 2);
+			if (value != MISSING) {
+				insert(newTable, newCapacity, table.get(i * SLOT_SIZE), table.get(i * SLOT_SIZE + 1), value);
+			}
+		}
+
+		table = newTable;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * @return true if a new slot was taken, false if an existing key was
+	 *         updated
+	 */
+	private static boolean insert(LongBuffer table, int capacity, long hi, long lo, long value) {
+		int mask = capacity - 1;
+
+		for (int slot = hash(hi, lo) & mask;; slot = (slot + 1) & mask) {
+			int base = slot * SLOT_SIZE;
+
+			if (table.get(base + 2) == MISSING) {
+				table.put(base, hi);
+				table.put(base + 1, lo);
+				table.put(base + 2, value);
+				return true;
+			}
+
+			if (table.get(base) == hi && table.get(base + 1) == lo) {
+				table.put(base + 2, value);
+				return false;
+			}
+		}
+	}
+
+	private int find(long hi, long lo) {
+		int mask = capacity - 1;
+
+		for (int slot = hash(hi, lo) & mask;; slot = (slot + 1) & mask) {
+			int base = slot * SLOT_SIZE;
+
+			if (table.get(base + 2) == MISSING) {
+				return -1;
+			}
+
+			if (table.get(base) == hi && table.get(base + 1) == lo) {
+				return slot;
+			}
+		}
+	}
+
+	private static int hash(long hi, long lo) {
+		long h = hi * 0x9E3779B97F4A7C15L + lo;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	/**
+	 * Packs an id of 32 lowercase hex digits, optionally dashed as a UUID
+	 * (8-4-4-4-12 digits), into two longs. An id and its dashed form get the
+	 * same key.
+	 *
+	 * @return false if the id is not in that form
+	 */
+	static boolean packHex(String id, long[] key) {
+		if (id == null) {
+			return false;
+		}
+
+		boolean dashed = id.length() == 36;
+
+		if (!dashed && id.length() != 32) {
+			return false;
+		}
+
+		long hi = 0;
+		long lo = 0;
+		int digits = 0;
+
+		for (int i = 0; i < id.length(); ++i) {
+			char c = id.charAt(i);
+
+			if (dashed && (i == 8 || i == 13 || i == 18 || i == 23)) {
+				if (c != '-') {
+					return false;
+				}
+				continue;
+			}
+
+			int digit;
+
+			if (c >= '0' && c <= '9') {
+				digit = c - '0';
+			} else if (c >= 'a' && c <= 'f') {
+				digit = c - 'a' + 10;
+			} else {
+				return false;
+			}
+
+			if (digits++ < 16) {
+				hi = (hi << 4) | digit;
+			} else {
+				lo = (lo << 4) | digit;
+			}
+		}
+
+		key[0] = hi;
+		key[1] = lo;
+
+		return true;
+	}
+}
@@ -6,4 +6,32 @@ import org.speedd.data.Event;
 public interface EventMetadata {
 	public EventParser getEventParser();
 	public String getEventId(Event event);
+
+	/**
+	 * Computes a compact key identifying the event, without building its id
+	 * string. Events with equal ids must get equal keys and the key must be
+	 * the same as for the id in string form.
+	 *
+	 * @return false if no key could be computed, the id string is used then
+	 */
+	public boolean getEventKey(Event event, long[] key);
+
+	/**
+	 * Computes the key of an event id given as a string, e.g. the ids of the
+	 * events contributing to a derived event
+	 *
+	 * @return false if no key could be computed, the id string is used then
+	 */
+	public boolean getEventKey(String eventId, long[] key);
+
+	/**
+	 * Serializes an event into the format read by the event parser
+	 */
+	public byte[] toBytes(Event event);
+
+	/**
+	 * @return attributes whose values must be made unique in every replica
+	 *         generated from the same source event
+	 */
+	public String[] getUniqueAttributes();
 }
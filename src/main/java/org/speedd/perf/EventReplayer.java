@@ -0,0 +1,273 @@
+package org.speedd.perf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.speedd.data.Event;
+
+/**
+ * Replays generated transaction events to a sink at the rate given by a
+ * {@link RateSchedule}.
+ *
+ * The replay is open-loop: every event has an intended send time derived from
+ * the schedule alone. A sink that stalls delays the events behind it, but the
+ * schedule does not shift, so the delay shows up as send lag (actual minus
+ * intended send time) instead of silently lowering the offered load. The
+ * intended send time of every event can be logged so that latencies measured
+ * downstream can be corrected for coordinated omission.
+ */
+public class EventReplayer implements TransactionEventGenerator.EventConsumer {
+	// below this, wait by yielding rather than parking, for precision
+	private static final long SPIN_THRESHOLD = 50 * 1000;
+
+	private static final String OPTION_SRC_FILE = "s";
+
+	private static final String OPTION_NREPS = "r";
+
+	private static final String OPTION_SCHEDULE = "R";
+
+	private static final String OPTION_TGT_FILE = "t";
+
+	private static final String OPTION_BOOTSTRAP_SERVERS = "k";
+
+	private static final String OPTION_TOPIC = "T";
+
+	private static final String OPTION_BATCH_SIZE = "b";
+
+	private static final String OPTION_LINGER = "L";
+
+	private static final String OPTION_INTENDED_TIME_LOG = "l";
+
+	private static final String OPTION_USE_CASE = "c";
+
+	private static final String USE_CASE_TRAFFIC = "traffic";
+
+	private static final String USAGE = "USAGE: replay -s <src-file> [-r <num of distinct repetitions>] -R <rate schedule, e.g. 1000x30s,1000-5000x1m> (-t <tgt-file> | -k <bootstrap servers> -T <topic> [-b <batch bytes>] [-L <linger ms>]) [-l <intended send time log>] [-c ccf|traffic]";
+
+	private final RateSchedule schedule;
+
+	private final TransactionEventGenerator.EventConsumer sink;
+
+	private final LatencyHistogram sendLag;
+
+	private PrintWriter intendedTimeLog;
+
+	private EventMetadata eventMetadata;
+
+	private long startNanos;
+
+	private long startMillis;
+
+	private long numOfSentEvents;
+
+	private long elapsed;
+
+	public EventReplayer(RateSchedule schedule, TransactionEventGenerator.EventConsumer sink) {
+		this.schedule = schedule;
+		this.sink = sink;
+		sendLag = new LatencyHistogram();
+		numOfSentEvents = 0;
+	}
+
+	/**
+	 * Logs "intended send time,actual send time,event id" of every event,
+	 * times in epoch milliseconds
+	 */
+	public void setIntendedTimeLog(PrintWriter intendedTimeLog) {
+		this.intendedTimeLog = intendedTimeLog;
+	}
+
+	/**
+	 * Cycles through the generator's replicas until the schedule is complete.
+	 * Event ids repeat after all replicas were sent once.
+	 */
+	public void replay(TransactionEventGenerator generator) throws IOException {
+		TransactionEventGenerator.Templates templates = generator.createTemplates();
+
+		if (templates.events.isEmpty()) {
+			throw new IOException("No source events to replay");
+		}
+
+		eventMetadata = generator.getEventMetadata();
+
+		startMillis = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+
+		for (int rep = 0; numOfSentEvents < schedule.getTotalEvents(); ++rep) {
+			generator.generateReplica(templates, rep % generator.getNumOfReplicas(), this);
+		}
+
+		elapsed = System.nanoTime() - startNanos;
+
+		if (intendedTimeLog != null) {
+			intendedTimeLog.flush();
+		}
+	}
+
+	@Override
+	public void onEvent(Event event) throws IOException {
+		if (numOfSentEvents >= schedule.getTotalEvents()) {
+			return;
+		}
+
+		long intended = startNanos + schedule.getIntendedTime(numOfSentEvents);
+		long remaining;
+
+		while ((remaining = intended - System.nanoTime()) > 0) {
+			if (remaining > SPIN_THRESHOLD) {
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+			} else {
+				Thread.yield();
+			}
+		}
+
+		long actual = System.nanoTime();
+
+		sink.onEvent(event);
+
+		sendLag.record((actual - intended) / 1000);
+
+		if (intendedTimeLog != null) {
+			intendedTimeLog.print(toEpochMillis(intended));
+			intendedTimeLog.print(',');
+			intendedTimeLog.print(toEpochMillis(actual));
+			intendedTimeLog.print(',');
+			intendedTimeLog.println(eventMetadata.getEventId(event));
+		}
+
+		numOfSentEvents++;
+	}
+
+	private long toEpochMillis(long nanos) {
+		return startMillis + (nanos - startNanos) / 1000000;
+	}
+
+	public long getNumOfSentEvents() {
+		return numOfSentEvents;
+	}
+
+	/**
+	 * @return histogram of actual minus intended send time, in microseconds
+	 */
+	public LatencyHistogram getSendLag() {
+		return sendLag;
+	}
+
+	/**
+	 * @return achieved rate in events per second
+	 */
+	public double getRate() {
+		return elapsed == 0 ? 0 : numOfSentEvents * 1E9 / elapsed;
+	}
+
+	public static void main(String[] args) {
+		Options options = new Options();
+
+		options.addOption(Option.builder(OPTION_SRC_FILE).hasArg().required().build());
+		options.addOption(Option.builder(OPTION_NREPS).hasArg().build());
+		options.addOption(Option.builder(OPTION_SCHEDULE).hasArg().required().build());
+		options.addOption(Option.builder(OPTION_TGT_FILE).hasArg().build());
+		options.addOption(Option.builder(OPTION_BOOTSTRAP_SERVERS).hasArg().build());
+		options.addOption(Option.builder(OPTION_TOPIC).hasArg().build());
+		options.addOption(Option.builder(OPTION_BATCH_SIZE).hasArg().build());
+		options.addOption(Option.builder(OPTION_LINGER).hasArg().build());
+		options.addOption(Option.builder(OPTION_INTENDED_TIME_LOG).hasArg().build());
+		options.addOption(Option.builder(OPTION_USE_CASE).hasArg().build());
+
+		try {
+			CommandLineParser clParser = new DefaultParser();
+			CommandLine cmd = clParser.parse(options, args);
+
+			if (cmd.hasOption(OPTION_TGT_FILE) == cmd.hasOption(OPTION_BOOTSTRAP_SERVERS)) {
+				throw new ParseException("Exactly one of a target file and Kafka bootstrap servers must be given");
+			}
+
+			if (cmd.hasOption(OPTION_BOOTSTRAP_SERVERS) && !cmd.hasOption(OPTION_TOPIC)) {
+				throw new ParseException("Sending to Kafka requires a topic");
+			}
+
+			int nReps = cmd.hasOption(OPTION_NREPS) ? Integer.parseInt(cmd.getOptionValue(OPTION_NREPS)) : 1;
+
+			RateSchedule schedule;
+
+			try {
+				schedule = new RateSchedule(cmd.getOptionValue(OPTION_SCHEDULE));
+			} catch (IllegalArgumentException e) {
+				throw new ParseException(e.getMessage());
+			}
+
+			EventMetadata eventMetadata = USE_CASE_TRAFFIC.equals(cmd.getOptionValue(OPTION_USE_CASE)) ? new TrafficEventMetadata() : new CCFEventMetadata();
+
+			TransactionEventGenerator gen = new TransactionEventGenerator(eventMetadata);
+			gen.initialize(cmd.getOptionValue(OPTION_SRC_FILE), nReps);
+
+			TransactionEventGenerator.FileWriter fileSink = null;
+			KafkaEventSink kafkaSink = null;
+			EventReplayer replayer;
+
+			if (cmd.hasOption(OPTION_TGT_FILE)) {
+				fileSink = new TransactionEventGenerator.FileWriter(new File(cmd.getOptionValue(OPTION_TGT_FILE)), eventMetadata);
+				fileSink.open();
+				replayer = new EventReplayer(schedule, fileSink);
+			} else {
+				int batchSize = cmd.hasOption(OPTION_BATCH_SIZE) ? Integer.parseInt(cmd.getOptionValue(OPTION_BATCH_SIZE)) : 64 * 1024;
+				int linger = cmd.hasOption(OPTION_LINGER) ? Integer.parseInt(cmd.getOptionValue(OPTION_LINGER)) : 5;
+
+				kafkaSink = new KafkaEventSink(KafkaEventSink.createProducerConfig(cmd.getOptionValue(OPTION_BOOTSTRAP_SERVERS), batchSize, linger), cmd.getOptionValue(OPTION_TOPIC), eventMetadata);
+				replayer = new EventReplayer(schedule, kafkaSink);
+			}
+
+			PrintWriter intendedTimeLog = null;
+
+			if (cmd.hasOption(OPTION_INTENDED_TIME_LOG)) {
+				intendedTimeLog = new PrintWriter(new BufferedWriter(new FileWriter(cmd.getOptionValue(OPTION_INTENDED_TIME_LOG))));
+				replayer.setIntendedTimeLog(intendedTimeLog);
+			}
+
+			System.out.println(String.format("Replaying %d events over %d ms", schedule.getTotalEvents(), schedule.getDuration() / 1000000));
+
+			replayer.replay(gen);
+
+			if (fileSink != null) {
+				fileSink.close();
+			}
+
+			if (kafkaSink != null) {
+				kafkaSink.close();
+
+				if (kafkaSink.getNumOfFailedSends() > 0) {
+					System.err.println(String.format("Warning: %d events failed to send", kafkaSink.getNumOfFailedSends()));
+				}
+			}
+
+			if (intendedTimeLog != null) {
+				intendedTimeLog.close();
+			}
+
+			LatencyHistogram lag = replayer.getSendLag();
+			System.out.println(String.format("Sent %d events, average rate: %f events/sec", replayer.getNumOfSentEvents(), replayer.getRate()));
+			if (lag.getCount() == 0) {
+				System.out.println("Send lag (us): no events sent");
+			} else {
+				System.out.println(String.format("Send lag (us): p50 %d, p99 %d, p99.9 %d, max %d", lag.getValueAtPercentile(0.5), lag.getValueAtPercentile(0.99), lag.getValueAtPercentile(0.999), lag.getMax()));
+			}
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		} catch (IOException ioex) {
+			System.err.println("Error: " + ioex.getMessage());
+			System.exit(1);
+		}
+	}
+}
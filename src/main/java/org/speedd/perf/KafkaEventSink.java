@@ -0,0 +1,72 @@
+package org.speedd.perf;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.speedd.data.Event;
+
+/**
+ * Sends serialized events as messages to a Kafka topic. Sends are asynchronous and
+ * batched by the producer according to its batch.size and linger.ms settings.
+ */
+public class KafkaEventSink implements TransactionEventGenerator.EventConsumer {
+	private final KafkaProducer<byte[], byte[]> producer;
+
+	private final String topic;
+
+	private final EventMetadata eventMetadata;
+
+	private final AtomicLong numOfFailedSends;
+
+	private final Callback callback;
+
+	public KafkaEventSink(Properties producerConfig, String topic) {
+		this(producerConfig, topic, new CCFEventMetadata());
+	}
+
+	public KafkaEventSink(Properties producerConfig, String topic, EventMetadata eventMetadata) {
+		this.topic = topic;
+		this.eventMetadata = eventMetadata;
+		producer = new KafkaProducer<byte[], byte[]>(producerConfig, new ByteArraySerializer(), new ByteArraySerializer());
+		numOfFailedSends = new AtomicLong(0);
+
+		callback = new Callback() {
+			@Override
+			public void onCompletion(RecordMetadata metadata, Exception exception) {
+				if (exception != null) {
+					numOfFailedSends.incrementAndGet();
+				}
+			}
+		};
+	}
+
+	static Properties createProducerConfig(String bootstrapServers, int batchSize, int lingerMs) {
+		Properties props = new Properties();
+		props.put("bootstrap.servers", bootstrapServers);
+		props.put("batch.size", String.valueOf(batchSize));
+		props.put("linger.ms", String.valueOf(lingerMs));
+
+		return props;
+	}
+
+	@Override
+	public void onEvent(Event event) {
+		producer.send(new ProducerRecord<byte[], byte[]>(topic, eventMetadata.toBytes(event)), callback);
+	}
+
+	public long getNumOfFailedSends() {
+		return numOfFailedSends.get();
+	}
+
+	/**
+	 * Waits for all pending sends to complete
+	 */
+	public void close() {
+		producer.close();
+	}
+}
@@ -0,0 +1,365 @@
+package org.speedd.perf;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-memory latency recorder using HDR-style log-linear buckets.
+ *
+ * Values below the sub-bucket count are recorded exactly; larger values share
+ * a bucket with values that are equal within the configured number of
+ * significant decimal digits. Recording is O(1) and does not allocate, and
+ * percentile queries walk the bucket counts instead of sorting samples.
+ *
+ * Negative values (e.g. caused by clock skew between hosts) are kept in a
+ * mirrored set of buckets which is allocated on first use. Values whose
+ * magnitude exceeds the highest trackable value are clamped to it; the exact
+ * min and max are tracked separately.
+ */
+public class LatencyHistogram {
+	public static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+	// one day in milliseconds
+	public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 24L * 60 * 60 * 1000;
+
+	private final long highestTrackableValue;
+
+	private final int significantDigits;
+
+	private final int subBucketBits;
+
+	private final int subBucketCount;
+
+	private final int subBucketHalfCount;
+
+	private final int countsLength;
+
+	private long[] counts;
+
+	private long[] negativeCounts;
+
+	private long totalCount;
+
+	private long min;
+
+	private long max;
+
+	private double sum;
+
+	public LatencyHistogram() {
+		this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_SIGNIFICANT_DIGITS);
+	}
+
+	public LatencyHistogram(int significantDigits) {
+		this(DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+	}
+
+	public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+		if(significantDigits < 1 || significantDigits > 5) {
+			throw new IllegalArgumentException("Number of significant digits must be within [1,5]");
+		}
+
+		if(highestTrackableValue < 2) {
+			throw new IllegalArgumentException("Highest trackable value must be at least 2");
+		}
+
+		this.highestTrackableValue = highestTrackableValue;
+		this.significantDigits = significantDigits;
+
+		long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+		subBucketBits = 64 - Long.numberOfLeadingZeros(largestValueWithSingleUnitResolution - 1);
+		subBucketCount = 1 << subBucketBits;
+		subBucketHalfCount = subBucketCount / 2;
+
+		countsLength = indexOf(highestTrackableValue) + 1;
+		counts = new long[countsLength];
+
+		reset();
+	}
+
+	/**
+	 * Creates an empty histogram with the same range and precision.
+	 */
+	public LatencyHistogram copyLayout() {
+		return new LatencyHistogram(highestTrackableValue, significantDigits);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		negativeCounts = null;
+		totalCount = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+		sum = 0;
+	}
+
+	public void record(long value) {
+		recordCount(value, 1);
+	}
+
+	private void recordCount(long value, long count) {
+		if(value >= 0) {
+			counts[indexOf(Math.min(value, highestTrackableValue))] += count;
+		} else {
+			if(negativeCounts == null) {
+				negativeCounts = new long[countsLength];
+			}
+			long magnitude = value == Long.MIN_VALUE ? highestTrackableValue : Math.min(-value, highestTrackableValue);
+			negativeCounts[indexOf(magnitude)] += count;
+		}
+
+		totalCount += count;
+		sum += (double) value * count;
+
+		if(value < min) {
+			min = value;
+		}
+
+		if(value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Adds all values recorded by another histogram of the same layout.
+	 */
+	public void add(LatencyHistogram other) {
+		if(other.countsLength != countsLength || other.subBucketBits != subBucketBits) {
+			throw new IllegalArgumentException("Cannot add histograms of different layouts");
+		}
+
+		if(other.totalCount == 0) {
+			return;
+		}
+
+		for(int i = 0; i < countsLength; ++i) {
+			counts[i] += other.counts[i];
+		}
+
+		if(other.negativeCounts != null) {
+			if(negativeCounts == null) {
+				negativeCounts = new long[countsLength];
+			}
+			for(int i = 0; i < countsLength; ++i) {
+				negativeCounts[i] += other.negativeCounts[i];
+			}
+		}
+
+		totalCount += other.totalCount;
+		sum += other.sum;
+
+		if(other.min < min) {
+			min = other.min;
+		}
+
+		if(other.max > max) {
+			max = other.max;
+		}
+	}
+
+	/**
+	 * Writes the histogram in a compact form - only non-empty buckets are
+	 * written.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(highestTrackableValue);
+		out.writeInt(significantDigits);
+		out.writeLong(totalCount);
+		out.writeLong(min);
+		out.writeLong(max);
+		out.writeDouble(sum);
+
+		writeCounts(out, counts);
+		writeCounts(out, negativeCounts);
+	}
+
+	/**
+	 * Reads a histogram written by {@link #write(DataOutput)}
+	 */
+	public static LatencyHistogram read(DataInput in) throws IOException {
+		long highestTrackableValue = in.readLong();
+		int significantDigits = in.readInt();
+
+		LatencyHistogram histogram;
+
+		try {
+			histogram = new LatencyHistogram(highestTrackableValue, significantDigits);
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Corrupt histogram: " + e.getMessage());
+		}
+
+		histogram.totalCount = in.readLong();
+		histogram.min = in.readLong();
+		histogram.max = in.readLong();
+		histogram.sum = in.readDouble();
+
+		histogram.counts = histogram.readCounts(in);
+		histogram.negativeCounts = histogram.readCounts(in);
+
+		if(histogram.counts == null) {
+			throw new IOException("Corrupt histogram: missing counts");
+		}
+
+		return histogram;
+	}
+
+	private static void writeCounts(DataOutput out, long[] counts) throws IOException {
+		if(counts == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		int nonEmpty = 0;
+		for(long count : counts) {
+			if(count != 0) {
+				nonEmpty++;
+			}
+		}
+
+		out.writeInt(nonEmpty);
+
+		for(int i = 0; i < counts.length; ++i) {
+			if(counts[i] != 0) {
+				out.writeInt(i);
+				out.writeLong(counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the counts or null if none were written
+	 */
+	private long[] readCounts(DataInput in) throws IOException {
+		int nonEmpty = in.readInt();
+
+		if(nonEmpty < 0) {
+			return null;
+		}
+
+		long[] result = new long[countsLength];
+
+		for(int i = 0; i < nonEmpty; ++i) {
+			int index = in.readInt();
+
+			if(index < 0 || index >= countsLength) {
+				throw new IOException("Corrupt histogram: bucket index out of range");
+			}
+
+			result[index] = in.readLong();
+		}
+
+		return result;
+	}
+
+	public long getCount() {
+		return totalCount;
+	}
+
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return totalCount == 0 ? 0 : max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : sum / totalCount;
+	}
+
+	public int getSignificantDigits() {
+		return significantDigits;
+	}
+
+	public long getHighestTrackableValue() {
+		return highestTrackableValue;
+	}
+
+	/**
+	 * Returns the value at the given percentile, using the same rank as
+	 * indexing a sorted list of all samples at round(count * percentile) - 1.
+	 * The result is the highest value equivalent to the bucket the rank falls
+	 * into, bounded by the exact min and max.
+	 *
+	 * @param percentile
+	 *            within (0,1]
+	 */
+	public long getValueAtPercentile(double percentile) {
+		return getValueAtRank(Math.round(totalCount * percentile));
+	}
+
+	/**
+	 * Same as {@link #getValueAtPercentile(double)}, but the rank is computed
+	 * in float precision, as Stats did when it sorted the samples, so that
+	 * e.g. p90 of 5 samples is still the 5th sample rather than the 4th.
+	 */
+	public long getValueAtPercentile(float percentile) {
+		return getValueAtRank(Math.round((double) (totalCount * percentile)));
+	}
+
+	private long getValueAtRank(long rank) {
+		if(totalCount == 0) {
+			throw new IllegalStateException("No values recorded");
+		}
+
+		rank = Math.max(1, Math.min(totalCount, rank));
+
+		long cumulative = 0;
+
+		if(negativeCounts != null) {
+			for(int i = countsLength - 1; i >= 0; --i) {
+				cumulative += negativeCounts[i];
+				if(cumulative >= rank) {
+					return bounded(-lowestEquivalentValue(i));
+				}
+			}
+		}
+
+		for(int i = 0; i < countsLength; ++i) {
+			cumulative += counts[i];
+			if(cumulative >= rank) {
+				return bounded(highestEquivalentValue(i));
+			}
+		}
+
+		return max;
+	}
+
+	private long bounded(long value) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private int indexOf(long value) {
+		if(value < subBucketCount) {
+			return (int) value;
+		}
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (subBucketBits - 1);
+		int subBucketIndex = (int) (value >>> shift) - subBucketHalfCount;
+
+		return subBucketCount + (shift - 1) * subBucketHalfCount + subBucketIndex;
+	}
+
+	private long lowestEquivalentValue(int index) {
+		if(index < subBucketCount) {
+			return index;
+		}
+
+		int shift = (index - subBucketCount) / subBucketHalfCount + 1;
+		long subBucket = (index - subBucketCount) % subBucketHalfCount + subBucketHalfCount;
+
+		return subBucket << shift;
+	}
+
+	private long highestEquivalentValue(int index) {
+		if(index < subBucketCount) {
+			return index;
+		}
+
+		int shift = (index - subBucketCount) / subBucketHalfCount + 1;
+
+		return lowestEquivalentValue(index) + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,92 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.speedd.kafka.JsonEventDecoder;
+
+/**
+ * Runs the {@link Stats} latency analysis on captured messages as they
+ * arrive, optionally passing them on to another sink that writes the raw log.
+ *
+ * Messages are analyzed on the thread that drains the capture queue. The
+ * timeline is also published by a timer, so that it keeps moving while no
+ * messages arrive, hence the analysis state is guarded by the sink.
+ */
+public class LiveStatsSink implements CaptureSink {
+	private final Stats stats;
+
+	private final CaptureSink delegate;
+
+	private final JsonEventDecoder decoder;
+
+	private long numOfSkippedMessages;
+
+	private boolean closed;
+
+	/**
+	 * @param delegate
+	 *            sink that writes the raw log, or null to only analyze
+	 */
+	public LiveStatsSink(Stats stats, CaptureSink delegate) {
+		this.stats = stats;
+		this.delegate = delegate;
+		decoder = new JsonEventDecoder();
+		numOfSkippedMessages = 0;
+		closed = false;
+
+		stats.initRecorders();
+	}
+
+	@Override
+	public synchronized void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException {
+		if (delegate != null) {
+			delegate.write(timestamp, topicId, message, offset, length);
+		}
+
+		try {
+			Stats.LogEntry entry = stats.parseEntry(timestamp, ByteBuffer.wrap(message), offset, offset + length, decoder);
+
+			if (entry != null) {
+				stats.processEntry(entry);
+			}
+		} catch (RuntimeException e) {
+			// a malformed message must not stop the capture
+			numOfSkippedMessages++;
+		}
+	}
+
+	/**
+	 * Writes the timeline intervals that the given receive time is past by the
+	 * grace period, even if no message was received since
+	 */
+	public synchronized void publish(long now) {
+		if (!closed) {
+			stats.advanceTimeline(now);
+		}
+	}
+
+	public synchronized long getNumOfSkippedMessages() {
+		return numOfSkippedMessages;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (delegate != null) {
+			delegate.flush();
+		}
+	}
+
+	/**
+	 * Writes the remaining timeline intervals and closes the delegate
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		stats.finishStats();
+
+		if (delegate != null) {
+			delegate.close();
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package org.speedd.perf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.speedd.kafka.JsonEventDecoder;
+
+/**
+ * Follows a log that is still being written, e.g. by {@link Analyzer}, and
+ * feeds {@link Stats} the lines or records appended since the last poll. Only
+ * complete lines and records are read. When the log is rotated, the next file
+ * is followed once the current one has been read to its end.
+ *
+ * The position in the log and the analysis state can be saved in a
+ * checkpoint, so that a restarted analysis resumes from the last checkpoint
+ * instead of reading the log from its start. Compressed logs cannot be
+ * followed.
+ */
+class LogFollower {
+	public static final long DEFAULT_POLL_INTERVAL = 200;
+
+	public static interface CheckpointListener {
+		/**
+		 * Called on the following thread after every periodic checkpoint
+		 */
+		public void onCheckpoint() throws IOException;
+	}
+
+	private static final byte[] CHECKPOINT_MAGIC = new byte[] { 'S', 'P', 'D', 'D', 'C', 'K', 'P', 'T' };
+
+	private static final byte CHECKPOINT_VERSION = 1;
+
+	// rotated files are named "<path>.<n>", see CaptureOutput
+	private static final Pattern ROTATED_FILE = Pattern.compile("(.*)\\.(\\d{1,9})");
+
+	private final Stats stats;
+
+	private final MappedLogScanner.LineHandler handler;
+
+	private File file;
+
+	private long offset;
+
+	// null until enough of the file was written to tell
+	private Boolean binary;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Starts following the file from its beginning. The file does not need to
+	 * exist yet.
+	 */
+	public LogFollower(File file, Stats stats) {
+		this.file = file.getAbsoluteFile();
+		this.stats = stats;
+		offset = 0;
+		binary = null;
+		stopped = false;
+
+		stats.initRecorders();
+		handler = stats.createEntryHandler(new JsonEventDecoder());
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Reads what was appended to the log since the last poll
+	 *
+	 * @return true if anything was read
+	 */
+	public boolean poll() throws IOException {
+		// the writer closes a file before starting the next one
+		File next = nextFile();
+		boolean rotated = next != null && next.exists();
+
+		boolean progress = readAppended();
+
+		if (rotated) {
+			file = next;
+			offset = 0;
+			binary = null;
+			progress = true;
+		}
+
+		return progress;
+	}
+
+	/**
+	 * Polls the log until {@link #stop()} is called. Every checkpoint interval
+	 * a checkpoint is written, if a checkpoint file is given, and the listener
+	 * is notified. A last checkpoint is written when following stops.
+	 *
+	 * @param checkpoint
+	 *            checkpoint file or null
+	 * @param listener
+	 *            listener or null
+	 */
+	public void follow(long pollInterval, long checkpointInterval, File checkpoint, CheckpointListener listener) throws IOException {
+		long lastCheckpoint = System.currentTimeMillis();
+
+		while (!stopped) {
+			boolean progress = poll();
+
+			long now = System.currentTimeMillis();
+
+			if (now - lastCheckpoint >= checkpointInterval) {
+				if (checkpoint != null) {
+					writeCheckpoint(checkpoint);
+				}
+				if (listener != null) {
+					listener.onCheckpoint();
+				}
+				lastCheckpoint = now;
+			}
+
+			if (!progress) {
+				try {
+					Thread.sleep(pollInterval);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		if (checkpoint != null) {
+			writeCheckpoint(checkpoint);
+		}
+	}
+
+	/**
+	 * Makes {@link #follow} return after the current poll
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Saves the position in the log and the analysis state. The checkpoint is
+	 * replaced atomically, so a crash never leaves a partial checkpoint behind.
+	 */
+	public void writeCheckpoint(File checkpoint) throws IOException {
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+
+		try {
+			out.write(CHECKPOINT_MAGIC);
+			out.writeByte(CHECKPOINT_VERSION);
+			out.writeUTF(file.getPath());
+			out.writeLong(offset);
+
+			stats.writeState(out);
+
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores the position in the log and the analysis state from a
+	 * checkpoint of this log, possibly taken while following a later file of
+	 * the rotation. The analysis must be configured as it was when the
+	 * checkpoint was written.
+	 */
+	public void resume(File checkpoint) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+
+		try {
+			byte[] magic = new byte[CHECKPOINT_MAGIC.length];
+			in.readFully(magic);
+
+			if (!Arrays.equals(magic, CHECKPOINT_MAGIC)) {
+				throw new IOException(String.format("%s is not a checkpoint", checkpoint));
+			}
+
+			byte version = in.readByte();
+			if (version != CHECKPOINT_VERSION) {
+				throw new IOException("Unsupported checkpoint version: " + version);
+			}
+
+			File checkpointFile = new File(in.readUTF());
+
+			if (!isSameLog(checkpointFile)) {
+				throw new IOException(String.format("Checkpoint %s was taken of %s", checkpoint, checkpointFile));
+			}
+
+			long checkpointOffset = in.readLong();
+
+			stats.readState(in);
+
+			file = checkpointFile;
+			offset = checkpointOffset;
+			binary = null;
+		} catch (EOFException e) {
+			throw new IOException(String.format("Truncated checkpoint %s", checkpoint));
+		} finally {
+			in.close();
+		}
+	}
+
+	private boolean readAppended() throws IOException {
+		long length = file.length();
+
+		if (length < offset) {
+			throw new IOException(String.format("%s was truncated below the offset %d", file, offset));
+		}
+
+		if (length == offset) {
+			return false;
+		}
+
+		if (binary == null) {
+			if (length < CaptureFormat.MAGIC.length) {
+				return false;
+			}
+
+			if (Compression.isCompressed(file)) {
+				throw new IOException(String.format("Cannot follow the compressed file %s", file));
+			}
+
+			binary = BinaryCaptureReader.isCapture(file);
+		}
+
+		long end = binary ? new BinaryCaptureReader(file).read(offset, handler) : new MappedLogScanner(file).scanCompleteLines(offset, handler);
+
+		boolean progress = end > offset;
+		offset = end;
+
+		return progress;
+	}
+
+	/**
+	 * @return the file the log is rotated to after the current one, null if
+	 *         the log is not rotated
+	 */
+	private File nextFile() {
+		Matcher matcher = ROTATED_FILE.matcher(file.getPath());
+
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		return new File(String.format("%s.%d", matcher.group(1), Long.parseLong(matcher.group(2)) + 1));
+	}
+
+	private boolean isSameLog(File other) {
+		if (other.equals(file)) {
+			return true;
+		}
+
+		Matcher matcher = ROTATED_FILE.matcher(file.getPath());
+		Matcher otherMatcher = ROTATED_FILE.matcher(other.getPath());
+
+		return matcher.matches() && otherMatcher.matches() && matcher.group(1).equals(otherMatcher.group(1));
+	}
+}
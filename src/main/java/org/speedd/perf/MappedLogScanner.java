@@ -0,0 +1,211 @@
+package org.speedd.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Scans a "timestamp:payload" log by memory-mapping it in windows and
+ * locating line, timestamp and payload boundaries directly over the mapped
+ * bytes. The timestamp is parsed without allocation and the payload is handed
+ * over as a (trimmed) byte range of the mapped buffer.
+ *
+ * Windows are remapped at the start of the first line that does not fit, so
+ * files larger than 2 GB are supported as long as a single line fits in a
+ * window.
+ */
+class MappedLogScanner {
+	public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+	public static interface LineHandler {
+		/**
+		 * @param buffer
+		 *            mapped window - only valid for the duration of the call
+		 * @param payloadStart
+		 *            index of the first payload byte in the buffer
+		 * @param payloadEnd
+		 *            index past the last payload byte in the buffer
+		 */
+		public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd);
+	}
+
+	private final File file;
+
+	private final long windowSize;
+
+	public MappedLogScanner(File file) {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	public MappedLogScanner(File file, long windowSize) {
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window size must be within (0, 2GB)");
+		}
+		this.file = file;
+		this.windowSize = windowSize;
+	}
+
+	public void scan(LineHandler handler) throws IOException {
+		scan(0, Long.MAX_VALUE, handler);
+	}
+
+	/**
+	 * Scans the lines starting within [start, end). The start offset is
+	 * expected to be at the beginning of a line.
+	 */
+	public void scan(long start, long end, LineHandler handler) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			end = Math.min(end, fileSize);
+
+			long position = start;
+
+			while (position < end) {
+				long mapEnd = Math.min(position + windowSize, fileSize);
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, mapEnd - position);
+				int limit = buffer.limit();
+
+				int lineStart = 0;
+
+				while (lineStart < limit && position + lineStart < end) {
+					int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+
+					if (lineEnd < 0) {
+						if (mapEnd < fileSize) {
+							// incomplete line - remap from its start
+							break;
+						}
+						lineEnd = limit;
+					}
+
+					scanLine(buffer, lineStart, lineEnd, handler);
+
+					lineStart = lineEnd + 1;
+				}
+
+				if (lineStart == 0) {
+					throw new IOException(String.format("Line at offset %d is longer than the scan window of %d bytes", position, windowSize));
+				}
+
+				position += Math.min(lineStart, limit);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Scans the complete lines starting at or after start, leaving out a last
+	 * line that is still being written, i.e. not yet terminated by a newline.
+	 *
+	 * @return the offset after the last complete line, start if there is none
+	 */
+	public long scanCompleteLines(long start, LineHandler handler) throws IOException {
+		long end = start;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long position = channel.size();
+
+			while (position > start && end == start) {
+				int size = (int) Math.min(buffer.capacity(), position - start);
+				position -= size;
+
+				buffer.clear();
+				buffer.limit(size);
+				while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+				}
+
+				for (int i = buffer.position() - 1; i >= 0; --i) {
+					if (buffer.get(i) == '\n') {
+						end = position + i + 1;
+						break;
+					}
+				}
+			}
+		} finally {
+			raf.close();
+		}
+
+		if (end > start) {
+			scan(start, end, handler);
+		}
+
+		return end;
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (buffer.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static void scanLine(ByteBuffer buffer, int start, int end, LineHandler handler) {
+		while (start < end && isWhitespace(buffer.get(start))) {
+			start++;
+		}
+
+		while (end > start && isWhitespace(buffer.get(end - 1))) {
+			end--;
+		}
+
+		if (start == end) {
+			return;
+		}
+
+		int i = start;
+		long timestamp = 0;
+
+		while (i < end) {
+			byte b = buffer.get(i);
+			if (b < '0' || b > '9') {
+				break;
+			}
+			timestamp = timestamp * 10 + (b - '0');
+			i++;
+		}
+
+		int digitsEnd = i;
+
+		while (i < end && isWhitespace(buffer.get(i))) {
+			i++;
+		}
+
+		if (digitsEnd == start || i == end || buffer.get(i) != ':') {
+			throw new NumberFormatException("Log line does not start with a timestamp: " + new String(copy(buffer, start, end)));
+		}
+
+		int payloadStart = i + 1;
+
+		while (payloadStart < end && isWhitespace(buffer.get(payloadStart))) {
+			payloadStart++;
+		}
+
+		handler.onLine(timestamp, buffer, payloadStart, end);
+	}
+
+	static byte[] copy(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,183 @@
+package org.speedd.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.speedd.perf.TransactionEventGenerator.Templates;
+
+/**
+ * Generates the replicas of a {@link TransactionEventGenerator} on a
+ * fork-join pool. Every worker thread decodes its own copy of the source
+ * events, since templates are patched in place.
+ *
+ * Output is either written in replica order, with at most a bounded window of
+ * encoded replicas waiting to be written, or split into one shard file per
+ * worker.
+ */
+class ParallelReplicaWriter {
+	private final TransactionEventGenerator generator;
+
+	private final int parallelism;
+
+	private final ThreadLocal<Templates> templates;
+
+	private Compression.Codec codec;
+
+	private class ReplicaTask extends RecursiveTask<byte[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final int rep;
+
+		public ReplicaTask(int rep) {
+			this.rep = rep;
+		}
+
+		@Override
+		protected byte[] compute() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			try {
+				generator.generateReplica(templates.get(), rep, new TransactionEventGenerator.StreamWriter(out, generator.getEventMetadata()));
+			} catch (IOException e) {
+				throw new ReplicaWriteException(e);
+			}
+
+			return out.toByteArray();
+		}
+	}
+
+	private class ShardTask extends RecursiveTask<File> {
+		private static final long serialVersionUID = 1L;
+
+		private final int shard;
+
+		private final File file;
+
+		public ShardTask(int shard, File file) {
+			this.shard = shard;
+			this.file = file;
+		}
+
+		@Override
+		protected File compute() {
+			TransactionEventGenerator.FileWriter writer = new TransactionEventGenerator.FileWriter(file, generator.getEventMetadata(), codec);
+
+			try {
+				writer.open();
+
+				try {
+					for (int rep = shard; rep < generator.getNumOfReplicas(); rep += parallelism) {
+						generator.generateReplica(templates.get(), rep, writer);
+					}
+				} finally {
+					writer.close();
+				}
+			} catch (IOException e) {
+				throw new ReplicaWriteException(e);
+			}
+
+			return file;
+		}
+	}
+
+	private static class ReplicaWriteException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public ReplicaWriteException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	public ParallelReplicaWriter(final TransactionEventGenerator generator, int parallelism) {
+		this.generator = generator;
+		this.parallelism = parallelism;
+		codec = Compression.Codec.NONE;
+
+		templates = new ThreadLocal<Templates>() {
+			@Override
+			protected Templates initialValue() {
+				return generator.createTemplates();
+			}
+		};
+	}
+
+	/**
+	 * Sets the compression of shard files
+	 */
+	public void setCodec(Compression.Codec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Writes all replicas to the stream, in the same order as
+	 * {@link TransactionEventGenerator#generateEvents}
+	 */
+	public void writeOrdered(OutputStream out) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try {
+			ArrayDeque<ForkJoinTask<byte[]>> window = new ArrayDeque<ForkJoinTask<byte[]>>();
+			int maxInFlight = 2 * parallelism;
+			int next = 0;
+
+			while (next < generator.getNumOfReplicas() || !window.isEmpty()) {
+				while (window.size() < maxInFlight && next < generator.getNumOfReplicas()) {
+					window.add(pool.submit(new ReplicaTask(next)));
+					next++;
+				}
+
+				out.write(window.poll().join());
+			}
+		} catch (ReplicaWriteException e) {
+			throw unwrap(e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Writes replica i to shard file "&lt;path&gt;.&lt;i mod parallelism&gt;"
+	 *
+	 * @return the shard files
+	 */
+	public List<File> writeShards(String path) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try {
+			List<ForkJoinTask<File>> tasks = new ArrayList<ForkJoinTask<File>>();
+
+			for (int shard = 0; shard < parallelism; ++shard) {
+				tasks.add(pool.submit(new ShardTask(shard, new File(String.format("%s.%d", path, shard)))));
+			}
+
+			List<File> shards = new ArrayList<File>();
+
+			for (ForkJoinTask<File> task : tasks) {
+				shards.add(task.join());
+			}
+
+			return shards;
+		} catch (ReplicaWriteException e) {
+			throw unwrap(e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static IOException unwrap(ReplicaWriteException e) {
+		//the pool may rethrow a copy wrapping the original exception
+		Throwable cause = e;
+		while (!(cause instanceof IOException)) {
+			cause = cause.getCause();
+		}
+		return (IOException) cause;
+	}
+}
@@ -0,0 +1,262 @@
+package org.speedd.perf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mergeable intermediate results of a {@link Stats} analysis, so that the logs
+ * captured by several {@link Analyzer} nodes, or shards of a log, can be
+ * analyzed separately and combined into the global results.
+ *
+ * A partial result holds the counters and latency histograms of everything
+ * that could be matched locally, the output events whose input events were not
+ * all seen locally, and the index of input event timestamps. Merging adds up
+ * counters and histograms and joins the deferred output events against the
+ * input events of all partial results, so an input event and the events
+ * derived from it may be captured on different nodes.
+ *
+ * Every file is read twice: first for its results and deferred events, then
+ * for its input events, of which only those referred to by deferred events are
+ * kept in memory.
+ */
+class PartialResults {
+	private static final byte[] MAGIC = new byte[] { 'S', 'P', 'D', 'D', 'P', 'R', 'T', 'L' };
+
+	private static final byte VERSION = 1;
+
+	private PartialResults() {
+	}
+
+	/**
+	 * Writes the results of an analysis run in partial mode
+	 */
+	public static void write(Stats stats, File file) throws IOException {
+		// length-prefixed, so that merging can skip to the input events
+		ByteArrayOutputStream results = new ByteArrayOutputStream();
+		DataOutputStream resultsOut = new DataOutputStream(results);
+
+		stats.writeResults(resultsOut);
+
+		List<Stats.DeferredEvent> deferredEvents = stats.getDeferredEvents();
+		resultsOut.writeInt(deferredEvents.size());
+
+		for (Stats.DeferredEvent event : deferredEvents) {
+			resultsOut.writeUTF(event.eventName);
+			resultsOut.writeLong(event.timestamp);
+			resultsOut.writeBoolean(event.isDerived);
+			resultsOut.writeLong(event.outLatency);
+
+			resultsOut.writeInt(event.keys.length);
+			for (long key : event.keys) {
+				resultsOut.writeLong(key);
+			}
+
+			resultsOut.writeInt(event.ids.length);
+			for (String id : event.ids) {
+				resultsOut.writeUTF(id);
+			}
+		}
+
+		resultsOut.close();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+		try {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(stats.getEventMetadata().getClass().getName());
+
+			out.writeInt(results.size());
+			results.writeTo(out);
+
+			stats.getIndex().write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Merges the partial results of analyses of the same use case, run with
+	 * the same precision
+	 */
+	public static Stats merge(List<File> files) throws IOException {
+		Stats merged = null;
+		String metadata = null;
+
+		List<Stats.DeferredEvent> deferredEvents = new ArrayList<Stats.DeferredEvent>();
+
+		for (File file : files) {
+			DataInputStream in = open(file);
+
+			try {
+				String fileMetadata = in.readUTF();
+
+				if (metadata != null && !metadata.equals(fileMetadata)) {
+					throw new IOException(String.format("%s holds results of %s rather than %s", file, fileMetadata, metadata));
+				}
+				metadata = fileMetadata;
+
+				in.readInt();
+
+				Stats partial = new Stats();
+				partial.initRecorders();
+				partial.readResults(in);
+
+				if (merged == null) {
+					merged = new Stats();
+					merged.setSignificantDigits(partial.getE2ELatencies().getSignificantDigits());
+					merged.initRecorders();
+				}
+
+				try {
+					merged.addResults(partial);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s holds results of a different precision", file));
+				}
+
+				readDeferredEvents(in, deferredEvents);
+			} catch (EOFException e) {
+				throw new IOException(String.format("Truncated partial results %s", file));
+			} finally {
+				in.close();
+			}
+		}
+
+		if (merged == null) {
+			throw new IOException("No partial results to merge");
+		}
+
+		final EventIdIndex referenced = new EventIdIndex();
+
+		for (Stats.DeferredEvent event : deferredEvents) {
+			for (int i = 0; i < event.keys.length; i += 2) {
+				referenced.put(event.keys[i], event.keys[i + 1], 0);
+			}
+			for (String id : event.ids) {
+				referenced.put(id, 0);
+			}
+		}
+
+		final EventIdIndex timestamps = new EventIdIndex();
+
+		for (File file : files) {
+			DataInputStream in = open(file);
+
+			try {
+				in.readUTF();
+				skipFully(in, in.readInt());
+
+				EventIdIndex.scan(in, new EventIdIndex.EntryHandler() {
+					@Override
+					public void onEntry(long hi, long lo, long value) {
+						if (referenced.get(hi, lo) != EventIdIndex.MISSING && value > timestamps.get(hi, lo)) {
+							timestamps.put(hi, lo, value);
+						}
+					}
+
+					@Override
+					public void onEntry(String id, long value) {
+						if (referenced.get(id) != EventIdIndex.MISSING && value > timestamps.get(id)) {
+							timestamps.put(id, value);
+						}
+					}
+				});
+			} catch (EOFException e) {
+				throw new IOException(String.format("Truncated partial results %s", file));
+			} finally {
+				in.close();
+			}
+		}
+
+		for (Stats.DeferredEvent event : deferredEvents) {
+			long latest = 0;
+
+			for (int i = 0; i < event.keys.length; i += 2) {
+				latest = Math.max(latest, timestamps.get(event.keys[i], event.keys[i + 1]));
+			}
+			for (String id : event.ids) {
+				latest = Math.max(latest, timestamps.get(id));
+			}
+
+			merged.resolve(event, latest);
+		}
+
+		return merged;
+	}
+
+	private static void readDeferredEvents(DataInputStream in, List<Stats.DeferredEvent> deferredEvents) throws IOException {
+		int count = in.readInt();
+
+		for (int i = 0; i < count; ++i) {
+			Stats.DeferredEvent event = new Stats.DeferredEvent();
+			event.eventName = in.readUTF();
+			event.timestamp = in.readLong();
+			event.isDerived = in.readBoolean();
+			event.outLatency = in.readLong();
+
+			event.keys = new long[in.readInt()];
+			for (int j = 0; j < event.keys.length; ++j) {
+				event.keys[j] = in.readLong();
+			}
+
+			event.ids = new String[in.readInt()];
+			for (int j = 0; j < event.ids.length; ++j) {
+				event.ids[j] = in.readUTF();
+			}
+
+			deferredEvents.add(event);
+		}
+	}
+
+	/**
+	 * @return the stream positioned after the header
+	 */
+	private static DataInputStream open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(String.format("%s does not hold partial results", file));
+			}
+
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported partial results version: " + version);
+			}
+		} catch (EOFException e) {
+			in.close();
+			throw new IOException(String.format("%s does not hold partial results", file));
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+
+		return in;
+	}
+
+	private static void skipFully(DataInputStream in, int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+
+			length -= skipped;
+		}
+	}
+}
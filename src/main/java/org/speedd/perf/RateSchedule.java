@@ -0,0 +1,143 @@
+package org.speedd.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target send rate over time, made of constant rate steps and linear ramps.
+ * The schedule is written as comma-separated segments
+ * "&lt;rate&gt;x&lt;duration&gt;" or "&lt;from rate&gt;-&lt;to rate&gt;x&lt;duration&gt;", with rates in
+ * events per second and durations in ms, s or m, e.g. "1000x30s,1000-5000x1m".
+ *
+ * The intended send time of every event follows from the schedule alone,
+ * independent of when earlier events were actually sent.
+ */
+class RateSchedule {
+	private static class Segment {
+		// nanoseconds since the schedule started
+		long start;
+
+		long duration;
+
+		double fromRate;
+
+		double toRate;
+
+		// number of events intended before this segment, fractional
+		double eventsBefore;
+
+		double getNumOfEvents() {
+			return (fromRate + toRate) / 2 * duration / 1E9;
+		}
+	}
+
+	private final List<Segment> segments;
+
+	private final long totalEvents;
+
+	private int current;
+
+	public RateSchedule(String schedule) {
+		segments = new ArrayList<Segment>();
+
+		long start = 0;
+		double events = 0;
+
+		for (String spec : schedule.trim().split("\\s*,\\s*")) {
+			Segment segment = parseSegment(spec);
+
+			segment.start = start;
+			segment.eventsBefore = events;
+			segments.add(segment);
+
+			start += segment.duration;
+			events += segment.getNumOfEvents();
+		}
+
+		totalEvents = (long) Math.floor(events + 1E-9);
+		current = 0;
+	}
+
+	private static Segment parseSegment(String spec) {
+		int x = spec.lastIndexOf('x');
+
+		if (x < 0) {
+			throw new IllegalArgumentException("Invalid schedule segment: " + spec);
+		}
+
+		Segment segment = new Segment();
+
+		try {
+			String rates = spec.substring(0, x);
+			int dash = rates.indexOf('-', 1);
+
+			if (dash > 0) {
+				segment.fromRate = Double.parseDouble(rates.substring(0, dash));
+				segment.toRate = Double.parseDouble(rates.substring(dash + 1));
+			} else {
+				segment.fromRate = segment.toRate = Double.parseDouble(rates);
+			}
+
+			segment.duration = parseDuration(spec.substring(x + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid schedule segment: " + spec);
+		}
+
+		if (segment.fromRate < 0 || segment.toRate < 0 || segment.duration <= 0) {
+			throw new IllegalArgumentException("Rates must not be negative and durations must be positive: " + spec);
+		}
+
+		return segment;
+	}
+
+	private static long parseDuration(String duration) {
+		if (duration.endsWith("ms")) {
+			return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(duration.substring(0, duration.length() - 2)));
+		} else if (duration.endsWith("s")) {
+			return TimeUnit.SECONDS.toNanos(Long.parseLong(duration.substring(0, duration.length() - 1)));
+		} else if (duration.endsWith("m")) {
+			return TimeUnit.MINUTES.toNanos(Long.parseLong(duration.substring(0, duration.length() - 1)));
+		}
+		throw new NumberFormatException();
+	}
+
+	public long getTotalEvents() {
+		return totalEvents;
+	}
+
+	public long getDuration() {
+		Segment last = segments.get(segments.size() - 1);
+		return last.start + last.duration;
+	}
+
+	/**
+	 * @return intended send time of the event, in nanoseconds since the start
+	 *         of the schedule. Event indexes are expected in increasing order.
+	 */
+	public long getIntendedTime(long event) {
+		if (event >= totalEvents) {
+			throw new IllegalArgumentException("Event " + event + " is beyond the end of the schedule");
+		}
+
+		while (current < segments.size() - 1 && segments.get(current + 1).eventsBefore <= event) {
+			current++;
+		}
+
+		Segment segment = segments.get(current);
+		double k = event - segment.eventsBefore;
+		double r0 = segment.fromRate;
+		double r1 = segment.toRate;
+		double seconds;
+
+		if (r0 == r1) {
+			seconds = k / r0;
+		} else {
+			// solve r0 t + (r1 - r0) t^2 / 2T = k for t
+			double a = (r1 - r0) / (2 * segment.duration / 1E9);
+			seconds = (-r0 + Math.sqrt(r0 * r0 + 4 * a * k)) / (2 * a);
+		}
+
+		return segment.start + Math.min((long) (seconds * 1E9), segment.duration);
+	}
+}
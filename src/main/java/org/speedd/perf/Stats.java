@@ -1,14 +1,22 @@
 package org.speedd.perf;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
@@ -20,7 +28,6 @@ import org.apache.commons.cli.ParseException;
 import org.speedd.EventParser;
 import org.speedd.data.Event;
 import org.speedd.data.impl.SpeeddEventFactory;
-import org.speedd.fraud.Constants;
 import org.speedd.fraud.FraudAggregatedReadingCsv2Event;
 import org.speedd.kafka.JsonEventDecoder;
 import org.speedd.traffic.TrafficAggregatedReadingCsv2Event;
@@ -36,20 +43,68 @@ public class Stats {
 		public long inLatency;
 	}
 	
-	public static final String USAGE = "USAGE: stats -p <percentile> [-s <start offset timestamp>] [-f <file>]";
+	/**
+	 * A decoded log line - decoding is independent of the analysis state and may run on any thread 
+	 */
+	static class LogEntry {
+		public long timestamp;
+		public Event event;
+		public boolean isInEvent;
+		//set instead of event for derived events that could be decoded selectively
+		public DerivedEventDecoder.DerivedEvent derivedEvent;
+	}
+	
+	/**
+	 * An output event of a partial analysis whose input events were not all seen by the same analysis, e.g. because
+	 * they were captured by another node. Its latencies are recorded when the partial results are merged.
+	 */
+	static class DeferredEvent {
+		public String eventName;
+		public long timestamp;
+		//raw events only have an end-to-end latency per type
+		public boolean isDerived;
+		public long outLatency;
+		//index keys of the input events, as pairs of longs
+		public long[] keys;
+		//ids of the input events that are not indexed by key
+		public String[] ids;
+	}
+	
+	public static final String USAGE = "USAGE: stats [-p <percentile>] [-P <percentile,...> -j <report file|->] [-s <start offset timestamp>] [-f <file>] [-d <significant digits>] [-w <max latency ms>] [-t <threads>] [-H] [-i <timeline interval ms> [-o <timeline file (.csv|.json)>]] [-F [-k <checkpoint file>] [-r <checkpoint interval sec>]] [-m <partial results file>]\n"
+			+ "       stats merge [-p <percentile>] [-P <percentile,...> -j <report file|->] <partial results file>...";
 	private static final String OPTION_PERCENTILE = "p";
 	private static final String OPTION_IN_FILE = "f";
 	private static final String OPTION_START_OFFSET = "s";
 	private static final String OPTION_USE_CASE = "c";
 	private static final String OPTION_DUMP_LOG = "l";
+	private static final String OPTION_SIGNIFICANT_DIGITS = "d";
+	private static final String OPTION_MAX_LATENCY = "w";
+	private static final String OPTION_THREADS = "t";
+	private static final String OPTION_OFF_HEAP_INDEX = "H";
+	private static final String OPTION_TIMELINE_INTERVAL = "i";
+	private static final String OPTION_TIMELINE_FILE = "o";
+	private static final String OPTION_PERCENTILES = "P";
+	private static final String OPTION_JSON_REPORT = "j";
+	private static final String OPTION_FOLLOW = "F";
+	private static final String OPTION_CHECKPOINT = "k";
+	private static final String OPTION_CHECKPOINT_INTERVAL = "r";
+	private static final String OPTION_PARTIAL = "m";
+	private static final String COMMAND_MERGE = "merge";
+	
+	private static final long DEFAULT_CHECKPOINT_INTERVAL = 10;
+	
+	//how long termination waits for the final checkpoint of follow mode
+	private static final long SHUTDOWN_TIMEOUT = 30000;
 	
-	private ArrayList<Long> e2eLatencies;
+	private LatencyHistogram e2eLatencies;
 	
-	private ArrayList<Long> processingLatencies;
+	private LatencyHistogram processingLatencies;
 	
-	private ArrayList<Long> inLatencies;
+	private LatencyHistogram inLatencies;
 	
-	private ArrayList<Long> outLatencies;
+	private LatencyHistogram outLatencies;
+	
+	private int significantDigits;
 	
 	private long earliestInEventTimestamp;
 	
@@ -57,16 +112,37 @@ public class Stats {
 	
 	private long numOfInEvents;
 	
+	private long numOfUnmatchedEvents;
+	
+	private long numOfEvictedInEvents;
+	
 	private long startTimestamp;
 	
+	//streaming mode: input events older than this horizon behind the current log timestamp are evicted (0 - keep all)
+	private long maxLatency;
+	
+	private long lastEvictionTimestamp;
+	
+	private boolean keepEventLog;
+	
+	//per-interval output - null if disabled
+	private Timeline timeline;
+	
 	private EventMetadata eventMetadata;
 	
-	private HashMap<String, ArrayList<Long>> e2eLatenciesPerType;
+	private final long[] eventKey = new long[2];
+	
+	private HashMap<String, LatencyHistogram> e2eLatenciesPerType;
 
 	private ArrayList<EventLogEntry> eventLog;
 	
 	private HashMap<String, EventLogEntry> eventLogMap;
 	
+	//partial results mode: events whose input events were not all seen are deferred to the merge
+	private boolean partial;
+	
+	private ArrayList<DeferredEvent> deferredEvents;
+	
 	protected EventMetadata getEventMetadata() {
 		return eventMetadata;
 	}
@@ -77,24 +153,39 @@ public class Stats {
 
 	private JsonEventDecoder jsonParser;
 	
-	//map of timestamps by event id
-	private Map<String, Long> timestamps;
+	//index of input event timestamps by event id
+	private EventIdIndex timestamps;
+	
+	private boolean offHeapIndex;
 	
 	protected Stats(){
 		earliestInEventTimestamp = 0;
 		latestInEventTimestamp = 0;
 		numOfInEvents = 0;
+		numOfUnmatchedEvents = 0;
+		numOfEvictedInEvents = 0;
 		startTimestamp = 0;
-		timestamps = new HashMap<String, Long>();
+		maxLatency = 0;
+		lastEvictionTimestamp = 0;
+		keepEventLog = true;
+		significantDigits = LatencyHistogram.DEFAULT_SIGNIFICANT_DIGITS;
+		offHeapIndex = false;
+		partial = false;
 		
 		jsonParser = new JsonEventDecoder();
 	}
 	
 	public static Stats analyze(InputStream eventStream, long startTimestamp, EventMetadata eventMetadata) throws IOException {
+		return analyze(eventStream, startTimestamp, eventMetadata, LatencyHistogram.DEFAULT_SIGNIFICANT_DIGITS);
+	}
+	
+	public static Stats analyze(InputStream eventStream, long startTimestamp, EventMetadata eventMetadata, int significantDigits) throws IOException {
 		Stats stats = new Stats();
 		
 		stats.setEventMetadata(eventMetadata);
 		
+		stats.setSignificantDigits(significantDigits);
+		
 		stats.setStartTimestamp(startTimestamp);
 		
 		stats.computeStats(eventStream);
@@ -110,113 +201,186 @@ public class Stats {
 		return startTimestamp;
 	}
 	
+	protected void setSignificantDigits(int significantDigits){
+		this.significantDigits = significantDigits;
+	}
+	
+	protected void setMaxLatency(long maxLatency){
+		this.maxLatency = maxLatency;
+	}
+	
+	protected long getMaxLatency(){
+		return maxLatency;
+	}
+	
+	/**
+	 * Keep the packed part of the input event index in direct memory rather than on the heap 
+	 */
+	protected void setOffHeapIndex(boolean offHeapIndex){
+		this.offHeapIndex = offHeapIndex;
+	}
+	
+	/**
+	 * Keep the events whose input events were not all seen for merging with partial results of other analyses, see
+	 * {@link PartialResults}. Input events are never evicted then, since events deferred by other analyses may refer
+	 * to any of them.
+	 */
+	protected void setPartial(boolean partial){
+		this.partial = partial;
+	}
+	
+	protected void setTimeline(Timeline timeline){
+		this.timeline = timeline;
+	}
+	
+	protected void setKeepEventLog(boolean keepEventLog){
+		this.keepEventLog = keepEventLog;
+	}
+	
 	public long getLatency(float percentile){
-		int percentileIndex = (int) (long) Math.round(e2eLatencies.size() * percentile)-1;
-		
-		return e2eLatencies.get(percentileIndex);
+		return e2eLatencies.getValueAtPercentile(percentile);
 	}
 	
 	public long getProcessingLatency(float percentile){
-		int percentileIndex = (int) (long) Math.round(processingLatencies.size() * percentile)-1;
-		
-		return processingLatencies.get(percentileIndex);
+		return processingLatencies.getValueAtPercentile(percentile);
 	}
 	
 	public long getInLatency(float percentile){
-		int percentileIndex = (int) (long) Math.round(inLatencies.size() * percentile)-1;
-		
-		return inLatencies.get(percentileIndex);
+		return inLatencies.getValueAtPercentile(percentile);
 	}
 
 	public long getOutLatency(float percentile){
-		int percentileIndex = (int) (long) Math.round(outLatencies.size() * percentile)-1;
-		
-		return outLatencies.get(percentileIndex);
+		return outLatencies.getValueAtPercentile(percentile);
 	}
 
 	public long getPerTypeLatency(String type, float percentile){
-		ArrayList<Long> e2eLatenciesForType = e2eLatenciesPerType.get(type);
-		
-		int percentileIndex = (int) (long) Math.round(e2eLatenciesForType.size() * percentile)-1;
-		
-		return e2eLatenciesForType.get(percentileIndex);
+		return e2eLatenciesPerType.get(type).getValueAtPercentile(percentile);
+	}
+	
+	LatencyHistogram getE2ELatencies(){
+		return e2eLatencies;
+	}
+	
+	LatencyHistogram getProcessingLatencies(){
+		return processingLatencies;
+	}
+	
+	LatencyHistogram getInLatencies(){
+		return inLatencies;
+	}
+	
+	LatencyHistogram getOutLatencies(){
+		return outLatencies;
+	}
+	
+	Map<String, LatencyHistogram> getE2ELatenciesPerType(){
+		return e2eLatenciesPerType;
+	}
+	
+	EventIdIndex getIndex(){
+		return timestamps;
+	}
+	
+	List<DeferredEvent> getDeferredEvents(){
+		return deferredEvents;
+	}
+	
+	long getEarliestInEventTimestamp(){
+		return earliestInEventTimestamp;
+	}
+	
+	long getLatestInEventTimestamp(){
+		return latestInEventTimestamp;
 	}
 	
 	public double getAvgInRate(){
 		return 1000 * (numOfInEvents - 1) / (latestInEventTimestamp - earliestInEventTimestamp);
 	}
 
-	private ArrayList<Long> getE2ELatenciesForType(Event event){
-		String eventName = event.getEventName();
-		
-		ArrayList<Long> e2eLatenciesForType = e2eLatenciesPerType.get(eventName);
+	private LatencyHistogram getE2ELatenciesForType(String eventName){
+		LatencyHistogram e2eLatenciesForType = e2eLatenciesPerType.get(eventName);
 		if(e2eLatenciesForType == null) {
-			e2eLatenciesForType = new ArrayList<Long>();
+			e2eLatenciesForType = e2eLatencies.copyLayout();
 			e2eLatenciesPerType.put(eventName, e2eLatenciesForType);
 		}
 
 		return e2eLatenciesForType;
 	}
 	
-	private void updateLatencies(Event event, long eventTimestamp){
-		Object[] contributingEvents = (Object[])event.getAttributes().get("transaction_ids");
+	private void updateLatencies(DerivedEventDecoder.DerivedEvent event, long eventTimestamp){
+		String[] contributingEvents = event.contributingIds;
 
 		if(contributingEvents.length == 0){
 			return;
 		}
 		
-		ArrayList<Long> e2eLatenciesForType = getE2ELatenciesForType(event);
-		
-		EventLogEntry logEntry = getEventLogEntry(event);
+		EventLogEntry logEntry = getEventLogEntry(event.eventId, event.name);
 		logEntry.timestamp = eventTimestamp;
 		
+		if(timeline != null){
+			timeline.recordOutEvent(eventTimestamp, event.name);
+		}
+		
 		long latestContributingInEventTimestamp = 0;
+		boolean allContributingSeen = true;
 
 		for(int i=contributingEvents.length-1; i>=0; --i){
-			String eventId = (String)contributingEvents[i];
+			long inEventTimestamp = getInEventTimestamp(contributingEvents[i]);
 			
-			if(timestamps.containsKey(eventId)){
-				long inEventTimestamp = timestamps.get(eventId);
-				
+			if(inEventTimestamp != EventIdIndex.MISSING){
 				if(inEventTimestamp > latestContributingInEventTimestamp){
 					latestContributingInEventTimestamp = inEventTimestamp;
 				}
+			} else {
+				allContributingSeen = false;
 			}
 		}
 
 		
-		if(latestContributingInEventTimestamp > 0){
-			Long latency = eventTimestamp - latestContributingInEventTimestamp;
+		//the latest contributing input event may be known to another partial analysis
+		boolean defer = deferredEvents != null && !allContributingSeen;
+		
+		if(defer){
+			deferDerivedEvent(event, eventTimestamp);
+		} else if(latestContributingInEventTimestamp == 0){
+			//contributing input events were never seen or already evicted
+			numOfUnmatchedEvents++;
+		}
+		
+		if(latestContributingInEventTimestamp > 0 && !defer){
+			long latency = eventTimestamp - latestContributingInEventTimestamp;
 			
-			e2eLatencies.add(latency);
-			e2eLatenciesForType.add(latency);
+			e2eLatencies.record(latency);
+			getE2ELatenciesForType(event.name).record(latency);
 			
-			Long outLatency = eventTimestamp - event.getTimestamp();
-			outLatencies.add(outLatency);
+			long outLatency = eventTimestamp - event.timestamp;
+			outLatencies.record(outLatency);
+			
+			if(timeline != null){
+				timeline.recordLatency(eventTimestamp, Timeline.E2E, latency);
+				timeline.recordLatency(eventTimestamp, Timeline.OUT, outLatency);
+			}
 			
 			logEntry.e2eLatency = latency;
 			logEntry.outLatency = outLatency;
 		}
 
 		//update processing latencies
-		long internalTimestamp = event.getTimestamp();
-		Object[] contributingTimestamps = (Object[])event.getAttributes().get("timestamps");
+		long internalTimestamp = event.timestamp;
 		
 		long latestContributingInternalTimestamp = 0;
-		long contributingTs = 0;
-		for (Object latestContributingTimestampObject : contributingTimestamps) {
-			if(latestContributingTimestampObject instanceof String){
-				contributingTs = Long.parseLong((String)latestContributingTimestampObject);
-			} else {
-				contributingTs = (Long)latestContributingTimestampObject;
-			}
+		for (long contributingTs : event.contributingTimestamps) {
 			if(contributingTs > latestContributingInternalTimestamp){
 				latestContributingInternalTimestamp = contributingTs;
 			}
 		}
 		
-		Long internalLatency = internalTimestamp - latestContributingInternalTimestamp;
-		processingLatencies.add(internalLatency);
+		long internalLatency = internalTimestamp - latestContributingInternalTimestamp;
+		processingLatencies.record(internalLatency);
+		
+		if(timeline != null){
+			timeline.recordLatency(eventTimestamp, Timeline.PROCESSING, internalLatency);
+		}
 
 		logEntry.processingLatency = internalLatency;
 		logEntry.inLatency = latestContributingInternalTimestamp - latestContributingInEventTimestamp;
@@ -225,7 +389,15 @@ public class Stats {
 	private void updateInEventMetrics(Event event, long timestamp){
 		numOfInEvents++;
 		
-		timestamps.put(getEventId(event), timestamp);
+		if(timeline != null){
+			timeline.recordInEvent(timestamp);
+		}
+		
+		if(getEventKey(event)){
+			timestamps.put(eventKey[0], eventKey[1], timestamp);
+		} else {
+			timestamps.put(getEventId(event), timestamp);
+		}
 		
 		if(earliestInEventTimestamp == 0){
 			earliestInEventTimestamp = timestamp;
@@ -241,15 +413,42 @@ public class Stats {
 		}
 	}
 
+	private void evictExpiredInEvents(long timestamp){
+		//sweep the index a few times per horizon rather than on every event
+		if(timestamp - lastEvictionTimestamp < Math.max(1, maxLatency / 4)){
+			return;
+		}
+		
+		long horizon = timestamp - maxLatency;
+		
+		numOfEvictedInEvents += timestamps.evictOlderThan(horizon);
+		
+		lastEvictionTimestamp = timestamp;
+	}
+	
 	protected String getEventId(Event event){
-		Map<String, Object> attrs = event.getAttributes();
+		Object eventId = event.getAttributes().get(DerivedEventDecoder.ATTR_EVENT_ID);
 		
-		if(attrs.containsKey("EventId")){
-			return (String)attrs.get("EventId");
-		} else { 
-			//FIXME parameterize to support other use cases/events, not just CC transactions
-			return (String)attrs.get(Constants.ATTR_TRANSACTION_ID);
-		}
+		return eventId != null? (String)eventId : eventMetadata.getEventId(event);
+	}
+	
+	/**
+	 * Computes the index key of the event into eventKey
+	 * 
+	 * @return false if the event is to be indexed by its id string
+	 */
+	private boolean getEventKey(Event event){
+		Object eventId = event.getAttributes().get(DerivedEventDecoder.ATTR_EVENT_ID);
+		
+		return eventId != null? eventMetadata.getEventKey((String)eventId, eventKey) : eventMetadata.getEventKey(event, eventKey);
+	}
+	
+	private long getInEventTimestamp(String eventId){
+		return eventMetadata.getEventKey(eventId, eventKey)? timestamps.get(eventKey[0], eventKey[1]) : timestamps.get(eventId);
+	}
+	
+	private long getInEventTimestamp(Event event){
+		return getEventKey(event)? timestamps.get(eventKey[0], eventKey[1]) : timestamps.get(getEventId(event));
 	}
 	
 	protected boolean isJSON(String str){
@@ -269,27 +468,135 @@ public class Stats {
 		writer.close();
 	}
 	
-	protected void computeStats(InputStream eventStream) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(eventStream));
-		
-		boolean done = false;
+	void initRecorders(){
+		timestamps = new EventIdIndex(offHeapIndex);
 		
-		e2eLatencies = new ArrayList<Long>();
+		e2eLatencies = new LatencyHistogram(significantDigits);
 		
-		processingLatencies = new ArrayList<Long>();
+		processingLatencies = e2eLatencies.copyLayout();
 		
-		inLatencies = new ArrayList<Long>();
+		inLatencies = e2eLatencies.copyLayout();
 		
-		outLatencies = new ArrayList<Long>();
+		outLatencies = e2eLatencies.copyLayout();
 		
-		e2eLatenciesPerType = new HashMap<String, ArrayList<Long>>();
+		e2eLatenciesPerType = new HashMap<String, LatencyHistogram>();
 		
 		eventLog = new ArrayList<EventLogEntry>();
 		
 		eventLogMap = new HashMap<>();
 		
+		deferredEvents = partial? new ArrayList<DeferredEvent>() : null;
+	}
+	
+	/**
+	 * Writes the analysis state - counters, latency histograms and the index of input events that later derived
+	 * events may refer to - so that the analysis can be resumed by {@link #readState(DataInput)}. Neither the timeline
+	 * nor the event log are part of the state.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		out.writeUTF(eventMetadata.getClass().getName());
+		out.writeLong(startTimestamp);
+		out.writeLong(maxLatency);
+		
+		writeResults(out);
+		
+		timestamps.write(out);
+	}
+	
+	/**
+	 * Writes counters and latency histograms, to be restored by {@link #readResults(DataInput)}
+	 */
+	void writeResults(DataOutput out) throws IOException {
+		out.writeLong(numOfInEvents);
+		out.writeLong(numOfUnmatchedEvents);
+		out.writeLong(numOfEvictedInEvents);
+		out.writeLong(earliestInEventTimestamp);
+		out.writeLong(latestInEventTimestamp);
+		out.writeLong(lastEvictionTimestamp);
+		
+		e2eLatencies.write(out);
+		processingLatencies.write(out);
+		inLatencies.write(out);
+		outLatencies.write(out);
+		
+		out.writeInt(e2eLatenciesPerType.size());
+		for (Map.Entry<String, LatencyHistogram> entry : e2eLatenciesPerType.entrySet()) {
+			out.writeUTF(entry.getKey());
+			entry.getValue().write(out);
+		}
+	}
+	
+	/**
+	 * Restores the state written by {@link #writeState(DataOutput)}. The analysis must be configured as it was when
+	 * the state was written.
+	 */
+	void readState(DataInput in) throws IOException {
+		String metadata = in.readUTF();
+		long start = in.readLong();
+		long horizon = in.readLong();
+		
+		if(!metadata.equals(eventMetadata.getClass().getName()) || start != startTimestamp || horizon != maxLatency){
+			throw new IOException("The saved analysis state was written with a different use case, start offset or max latency");
+		}
+		
+		readResults(in);
+		
+		if(e2eLatencies.getSignificantDigits() != significantDigits){
+			throw new IOException(String.format("The saved analysis state was written with %d significant digits", e2eLatencies.getSignificantDigits()));
+		}
+		
+		timestamps = EventIdIndex.read(in, offHeapIndex);
+	}
+	
+	/**
+	 * Replaces counters and latency histograms by those written by {@link #writeResults(DataOutput)}
+	 */
+	void readResults(DataInput in) throws IOException {
+		numOfInEvents = in.readLong();
+		numOfUnmatchedEvents = in.readLong();
+		numOfEvictedInEvents = in.readLong();
+		earliestInEventTimestamp = in.readLong();
+		latestInEventTimestamp = in.readLong();
+		lastEvictionTimestamp = in.readLong();
+		
+		e2eLatencies = LatencyHistogram.read(in);
+		processingLatencies = LatencyHistogram.read(in);
+		inLatencies = LatencyHistogram.read(in);
+		outLatencies = LatencyHistogram.read(in);
+		
+		e2eLatenciesPerType.clear();
+		int numOfTypes = in.readInt();
+		for(int i=0; i<numOfTypes; ++i){
+			String type = in.readUTF();
+			e2eLatenciesPerType.put(type, LatencyHistogram.read(in));
+		}
+	}
+	
+	protected void computeStats(InputStream eventStream) throws IOException {
+		//compressed logs are recognized by their magic as well
+		InputStream in = Compression.decompress(eventStream);
+		
+		initRecorders();
+		
 		JsonEventDecoder decoder = new JsonEventDecoder();
 		
+		//binary captures are recognized by their magic
+		byte[] prefix = new byte[CaptureFormat.MAGIC.length];
+		in.mark(prefix.length);
+		int prefixLength = in.read(prefix);
+		in.reset();
+		
+		if(prefixLength > 0 && CaptureFormat.isCapture(prefix, prefixLength)){
+			BinaryCaptureReader.read(in, createEntryHandler(decoder));
+			
+			finishStats();
+			return;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		
+		boolean done = false;
+		
 		do {
 			String line = reader.readLine();
 			if(line == null){
@@ -297,51 +604,187 @@ public class Stats {
 				continue;
 			}
 			
-			String[] eventEntry = line.split(":", 2);
-			long timestamp = Long.parseLong(eventEntry[0].trim());
+			LogEntry entry = parseLine(line, decoder);
 			
-			if(timestamp < startTimestamp){
-				continue;
+			if(entry != null){
+				processEntry(entry);
 			}
-			
-			if(isJSON(eventEntry[1])){
-				//events emitted by speedd runtime are in JSON format (opposite to raw events which are csv)
-				Event event = decoder.fromBytes(eventEntry[1].trim().getBytes());
+		} while (!done);
+		
+		finishStats();
+	}
+	
+	/**
+	 * Scans the memory-mapped file without materializing lines as strings. Binary captures written by {@link Analyzer}
+	 * are read directly from the mapped records. 
+	 */
+	protected void computeStats(File file) throws IOException {
+		if(Compression.isCompressed(file)){
+			computeStatsAndClose(new FileInputStream(file));
+			return;
+		}
+		
+		initRecorders();
+		
+		MappedLogScanner.LineHandler handler = createEntryHandler(new JsonEventDecoder());
+		
+		if(BinaryCaptureReader.isCapture(file)){
+			new BinaryCaptureReader(file).read(handler);
+		} else {
+			new MappedLogScanner(file).scan(handler);
+		}
+		
+		finishStats();
+	}
+	
+	/**
+	 * Decodes the file on a fork-join pool in newline-aligned chunks and applies the decoded entries in log order,
+	 * so the results are identical to those of {@link #computeStats(InputStream)}
+	 */
+	protected void computeStats(File file, int parallelism) throws IOException {
+		if(Compression.isCompressed(file)){
+			//compressed files cannot be split, decompression is sequential anyway
+			computeStatsAndClose(new FileInputStream(file));
+			return;
+		}
+		
+		if(BinaryCaptureReader.isCapture(file)){
+			//binary captures need no tokenization, the sequential mapped read is sufficient
+			computeStats(file);
+			return;
+		}
+		
+		initRecorders();
+		
+		new ChunkedLogReader(file, parallelism, this).read();
+		
+		finishStats();
+	}
+	
+	private void computeStatsAndClose(InputStream in) throws IOException {
+		try {
+			computeStats(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	MappedLogScanner.LineHandler createEntryHandler(final JsonEventDecoder decoder){
+		return new MappedLogScanner.LineHandler() {
+			@Override
+			public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+				LogEntry entry = parseEntry(timestamp, buffer, payloadStart, payloadEnd, decoder);
 				
-				if(event.getAttributes().containsKey("timestamps")){
-					//derived event - update latencies regarding the contributing events
-					updateLatencies(event, timestamp);
-				} else {
-					updateLatenciesForRawEvents(event, timestamp);
+				if(entry != null){
+					processEntry(entry);
 				}
-			} else {
-				//input (csv) event
-					//input event - does not contain 'timestamps' - use to compute real rates
-				Event event = eventMetadata.getEventParser().fromBytes(eventEntry[1].trim().getBytes());
-				updateInEventMetrics(event, timestamp);
 			}
+		};
+	}
+	
+	void finishStats(){
+		if(timeline != null){
+			timeline.close();
+		}
+	}
+	
+	/**
+	 * @return the decoded entry or null if the line is to be skipped
+	 */
+	LogEntry parseLine(String line, JsonEventDecoder decoder){
+		if(line.trim().isEmpty()){
+			return null;
+		}
+		
+		String[] eventEntry = line.split(":", 2);
+		long timestamp = Long.parseLong(eventEntry[0].trim());
+		
+		if(timestamp < startTimestamp){
+			return null;
+		}
+		
+		byte[] payload = eventEntry[1].trim().getBytes();
+		
+		return decode(timestamp, ByteBuffer.wrap(payload), 0, payload.length, decoder);
+	}
+	
+	/**
+	 * @return the decoded entry or null if the line is to be skipped
+	 */
+	LogEntry parseEntry(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd, JsonEventDecoder decoder){
+		if(timestamp < startTimestamp){
+			return null;
+		}
+		
+		return decode(timestamp, buffer, payloadStart, payloadEnd, decoder);
+	}
+	
+	private LogEntry decode(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd, JsonEventDecoder decoder){
+		LogEntry entry = new LogEntry();
+		entry.timestamp = timestamp;
+		
+		if(payloadEnd > payloadStart && buffer.get(payloadStart) == '{'){
+			//events emitted by speedd runtime are in JSON format (opposite to raw events which are csv)
+			entry.isInEvent = false;
 			
+			//derived events only need a few fields, anything else is decoded in full
+			entry.derivedEvent = DerivedEventDecoder.decode(buffer, payloadStart, payloadEnd);
 			
-		} while (!done);
+			if(entry.derivedEvent == null){
+				entry.event = decoder.fromBytes(MappedLogScanner.copy(buffer, payloadStart, payloadEnd));
+			}
+		} else {
+			//input (csv) event
+			entry.event = eventMetadata.getEventParser().fromBytes(MappedLogScanner.copy(buffer, payloadStart, payloadEnd));
+			entry.isInEvent = true;
+		}
 		
-		Collections.sort(e2eLatencies);
-		Collections.sort(processingLatencies);
-		Collections.sort(inLatencies);
-		Collections.sort(outLatencies);
-		for (String type : e2eLatenciesPerType.keySet()) {
-			Collections.sort(e2eLatenciesPerType.get(type));
+		return entry;
+	}
+	
+	/**
+	 * Writes the timeline intervals the given log time is past, for live analysis while no entries arrive
+	 */
+	void advanceTimeline(long timestamp){
+		if(timeline != null){
+			timeline.advance(timestamp);
 		}
 	}
 	
-	private EventLogEntry getEventLogEntry(Event event){
-		String eventId = getEventId(event);
+	void processEntry(LogEntry entry){
+		if(maxLatency > 0 && !partial){
+			evictExpiredInEvents(entry.timestamp);
+		}
+		
+		if(timeline != null){
+			timeline.advance(entry.timestamp);
+		}
+		
+		Event event = entry.event;
+		
+		if(entry.derivedEvent != null){
+			updateLatencies(entry.derivedEvent, entry.timestamp);
+		} else if(entry.isInEvent){
+			//input event - does not contain 'timestamps' - use to compute real rates
+			updateInEventMetrics(event, entry.timestamp);
+		} else if(event.getAttributes().containsKey(DerivedEventDecoder.ATTR_CONTRIBUTING_TIMESTAMPS)){
+			//derived event - update latencies regarding the contributing events
+			updateLatencies(DerivedEventDecoder.fromEvent(event, getEventId(event)), entry.timestamp);
+		} else {
+			updateLatenciesForRawEvents(event, entry.timestamp);
+		}
+	}
+	
+	private EventLogEntry getEventLogEntry(String eventId, String eventName){
 		EventLogEntry entry = eventLogMap.get(eventId);
 		
 		if(entry == null){
 			entry = new EventLogEntry();
 			entry.eventId = eventId;
-			entry.eventName = event.getEventName();
-			eventLog.add(entry);
+			entry.eventName = eventName;
+			if(keepEventLog){
+				eventLog.add(entry);
+			}
 		}
 		
 		return entry;
@@ -351,57 +794,378 @@ public class Stats {
 		//Only input latency is known for raw events - their detected time is set during deserialization in kafka spout
 		long detectedTime = event.getTimestamp();
 		long inputPhaseLatency = detectedTime - timestamp;
-		inLatencies.add(inputPhaseLatency);
+		inLatencies.record(inputPhaseLatency);
 		
-		ArrayList<Long> e2eLatenciesForType = getE2ELatenciesForType(event);
-		Long inTimestamp = timestamps.get(getEventId(event));
+		if(timeline != null){
+			timeline.recordOutEvent(timestamp, event.getEventName());
+			timeline.recordLatency(timestamp, Timeline.IN, inputPhaseLatency);
+		}
 		
+		long inTimestamp = getInEventTimestamp(event);
 		
-		if(inTimestamp != null){
-			Long e2elatency = timestamp - inTimestamp;
-			e2eLatenciesForType.add(e2elatency);
+		
+		if(inTimestamp != EventIdIndex.MISSING){
+			long e2elatency = timestamp - inTimestamp;
+			getE2ELatenciesForType(event.getEventName()).record(e2elatency);
 
-			EventLogEntry logEntry = getEventLogEntry(event);
+			EventLogEntry logEntry = getEventLogEntry(getEventId(event), event.getEventName());
 			logEntry.e2eLatency = e2elatency;
 			logEntry.processingLatency = e2elatency;
 			logEntry.timestamp = inTimestamp;
 			logEntry.outLatency = timestamp - detectedTime;
+		} else if(deferredEvents != null){
+			deferRawEvent(event, timestamp);
+		}
+		
+	}
+	
+	private void deferDerivedEvent(DerivedEventDecoder.DerivedEvent event, long eventTimestamp){
+		DeferredEvent deferred = new DeferredEvent();
+		deferred.eventName = event.name;
+		deferred.timestamp = eventTimestamp;
+		deferred.isDerived = true;
+		deferred.outLatency = eventTimestamp - event.timestamp;
+		
+		long[] keys = new long[2 * event.contributingIds.length];
+		int numOfKeys = 0;
+		ArrayList<String> ids = new ArrayList<String>();
+		
+		for (String contributingId : event.contributingIds) {
+			if(eventMetadata.getEventKey(contributingId, eventKey)){
+				keys[numOfKeys++] = eventKey[0];
+				keys[numOfKeys++] = eventKey[1];
+			} else {
+				ids.add(contributingId);
+			}
+		}
+		
+		deferred.keys = Arrays.copyOf(keys, numOfKeys);
+		deferred.ids = ids.toArray(new String[ids.size()]);
+		
+		deferredEvents.add(deferred);
+	}
+	
+	private void deferRawEvent(Event event, long timestamp){
+		DeferredEvent deferred = new DeferredEvent();
+		deferred.eventName = event.getEventName();
+		deferred.timestamp = timestamp;
+		deferred.isDerived = false;
+		
+		if(getEventKey(event)){
+			deferred.keys = new long[]{eventKey[0], eventKey[1]};
+			deferred.ids = new String[0];
+		} else {
+			deferred.keys = new long[0];
+			deferred.ids = new String[]{getEventId(event)};
+		}
+		
+		deferredEvents.add(deferred);
+	}
+	
+	/**
+	 * Adds the counters and latencies of another analysis, e.g. of a partial analysis of another node's log
+	 * 
+	 * @throws IllegalArgumentException if the latencies were recorded with a different precision
+	 */
+	void addResults(Stats other){
+		numOfInEvents += other.numOfInEvents;
+		numOfUnmatchedEvents += other.numOfUnmatchedEvents;
+		numOfEvictedInEvents += other.numOfEvictedInEvents;
+		
+		if(other.earliestInEventTimestamp != 0 && (earliestInEventTimestamp == 0 || other.earliestInEventTimestamp < earliestInEventTimestamp)){
+			earliestInEventTimestamp = other.earliestInEventTimestamp;
+		}
+		
+		if(other.latestInEventTimestamp > latestInEventTimestamp){
+			latestInEventTimestamp = other.latestInEventTimestamp;
+		}
+		
+		e2eLatencies.add(other.e2eLatencies);
+		processingLatencies.add(other.processingLatencies);
+		inLatencies.add(other.inLatencies);
+		outLatencies.add(other.outLatencies);
+		
+		for (Map.Entry<String, LatencyHistogram> entry : other.e2eLatenciesPerType.entrySet()) {
+			if(entry.getValue().getCount() > 0){
+				getE2ELatenciesForType(entry.getKey()).add(entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Records the latencies of a deferred event
+	 * 
+	 * @param latestContributingInEventTimestamp timestamp of the latest of its input events found by any analysis, 0 if
+	 * none was found
+	 */
+	void resolve(DeferredEvent event, long latestContributingInEventTimestamp){
+		if(latestContributingInEventTimestamp == 0){
+			if(event.isDerived){
+				numOfUnmatchedEvents++;
+			}
+			return;
 		}
 		
+		long latency = event.timestamp - latestContributingInEventTimestamp;
+		getE2ELatenciesForType(event.eventName).record(latency);
+		
+		if(event.isDerived){
+			e2eLatencies.record(latency);
+			outLatencies.record(event.outLatency);
+		}
 	}
 
 	public long getNumOfInEvents(){
 		return numOfInEvents;
 	}
 	
+	/**
+	 * @return number of derived events none of whose contributing input events could be found - either because they
+	 * were never logged or because they had been evicted in streaming mode
+	 */
+	public long getNumOfUnmatchedEvents(){
+		return numOfUnmatchedEvents;
+	}
+	
+	public long getNumOfEvictedInEvents(){
+		return numOfEvictedInEvents;
+	}
+	
+	static void printLatencies(Stats stats, float percentile, PrintStream out){
+		out.println(String.format("%.1f%% End-to-end latency: %s", percentile * 100, formatLatency(stats.e2eLatencies, percentile)));
+		out.println(String.format("%.1f%% Processing latency: %s", percentile * 100, formatLatency(stats.processingLatencies, percentile)));
+		
+		out.println(String.format("%.1f%% End-to-end latencies per event type:", percentile * 100));
+		for (Map.Entry<String, LatencyHistogram> entry : stats.e2eLatenciesPerType.entrySet()) {
+			out.println(String.format("%s: %s", entry.getKey(), formatLatency(entry.getValue(), percentile)));
+		}
+		out.println(String.format("%.1f%% Input phase latency: %s", percentile * 100, formatLatency(stats.inLatencies, percentile)));
+		out.println(String.format("%.1f%% Output phase latency: %s", percentile * 100, formatLatency(stats.outLatencies, percentile)));
+		if(stats.numOfInEvents > 1 && stats.latestInEventTimestamp > stats.earliestInEventTimestamp){
+			out.println(String.format("Num of input events: %d, average rate: %f events/sec", stats.numOfInEvents, stats.getAvgInRate() ));
+		} else {
+			out.println(String.format("Num of input events: %d", stats.numOfInEvents));
+		}
+		out.println(String.format("Num of unmatched derived events: %d", stats.numOfUnmatchedEvents));
+		
+		if(stats.maxLatency > 0){
+			out.println(String.format("Num of input events evicted after %d ms: %d", stats.maxLatency, stats.numOfEvictedInEvents));
+		}
+	}
+	
+	/**
+	 * @return the latency at the percentile, or n/a if none was recorded, e.g. because all input events were evicted
+	 */
+	private static String formatLatency(LatencyHistogram histogram, float percentile){
+		return histogram.getCount() == 0? "n/a" : histogram.getValueAtPercentile(percentile) + " ms";
+	}
+	
+	private static void writeReport(String report, String path) throws IOException {
+		if(path.equals("-")){
+			System.out.println(report);
+		} else {
+			PrintWriter reportWriter = new PrintWriter(path);
+			reportWriter.println(report);
+			reportWriter.close();
+		}
+	}
+	
+	/**
+	 * Follows the log until the process is terminated, resuming from the checkpoint if there is one. The report is
+	 * written at every checkpoint.
+	 */
+	private static void follow(final Stats stats, File file, File checkpoint, long checkpointInterval, final String jsonReportPath, final double[] percentiles) throws IOException {
+		final LogFollower follower = new LogFollower(file, stats);
+		
+		if(checkpoint != null && checkpoint.exists()){
+			follower.resume(checkpoint);
+			System.err.println(String.format("Resuming %s at offset %d", follower.getFile(), follower.getOffset()));
+		}
+		
+		final Thread mainThread = Thread.currentThread();
+		
+		//on termination, let the final checkpoint and report be written
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				follower.stop();
+				
+				try {
+					mainThread.join(SHUTDOWN_TIMEOUT);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		
+		follower.follow(LogFollower.DEFAULT_POLL_INTERVAL, checkpointInterval, checkpoint, new LogFollower.CheckpointListener() {
+			@Override
+			public void onCheckpoint() throws IOException {
+				if(jsonReportPath != null){
+					writeReport(StatsReport.toJSON(stats, percentiles), jsonReportPath);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * stats merge: combines the partial results written with -m
+	 */
+	private static void merge(String[] args) {
+		Options options = new Options();
+		
+		options.addOption(Option.builder(OPTION_PERCENTILE).hasArg().type(Float.class).build());
+		options.addOption(Option.builder(OPTION_PERCENTILES).hasArg().build());
+		options.addOption(Option.builder(OPTION_JSON_REPORT).hasArg().build());
+		
+		try {
+			CommandLine cmd = new DefaultParser().parse(options, args);
+			
+			float percentile = cmd.hasOption(OPTION_PERCENTILE)? Float.parseFloat(cmd.getOptionValue(OPTION_PERCENTILE)) : 0;
+			
+			if(cmd.hasOption(OPTION_PERCENTILE) && (percentile <= 0 || percentile > 1)){
+				throw new ParseException("Percentile value must be within (0,1]");
+			}
+			
+			double[] percentiles = StatsReport.DEFAULT_PERCENTILES;
+			
+			if(cmd.hasOption(OPTION_PERCENTILES)){
+				try {
+					percentiles = StatsReport.parsePercentiles(cmd.getOptionValue(OPTION_PERCENTILES));
+				} catch (IllegalArgumentException e){
+					throw new ParseException(e.getMessage());
+				}
+			}
+			
+			String jsonReportPath = cmd.hasOption(OPTION_JSON_REPORT)? cmd.getOptionValue(OPTION_JSON_REPORT) : cmd.hasOption(OPTION_PERCENTILE)? null : "-";
+			
+			if(cmd.getArgs().length == 0){
+				throw new ParseException("No partial results to merge");
+			}
+			
+			List<File> files = new ArrayList<File>();
+			for (String path : cmd.getArgs()) {
+				files.add(new File(path));
+			}
+			
+			Stats stats = PartialResults.merge(files);
+			
+			if(cmd.hasOption(OPTION_PERCENTILE)){
+				printLatencies(stats, percentile, System.out);
+			}
+			
+			if(jsonReportPath != null){
+				writeReport(StatsReport.toJSON(stats, percentiles), jsonReportPath);
+			}
+		} catch (ParseException pe){
+			System.err.println(pe.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		} catch (IOException ioe){
+			System.out.println(ioe.getMessage());
+			System.exit(1);
+		}
+	}
+	
 	public static void main(String[] args) {
+		if(args.length > 0 && args[0].equals(COMMAND_MERGE)){
+			merge(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
 		Options options = new Options();
 
-		options.addOption(Option.builder(OPTION_PERCENTILE).hasArg().type(Float.class).required().build());
+		options.addOption(Option.builder(OPTION_PERCENTILE).hasArg().type(Float.class).build());
 		options.addOption(Option.builder(OPTION_IN_FILE).hasArg().build());
 		options.addOption(Option.builder(OPTION_START_OFFSET).required(false).hasArg().build());
 		options.addOption(Option.builder(OPTION_USE_CASE).required(false).hasArg().build());
 		options.addOption(Option.builder(OPTION_DUMP_LOG).hasArg().build());
+		options.addOption(Option.builder(OPTION_SIGNIFICANT_DIGITS).hasArg().type(Integer.class).build());
+		options.addOption(Option.builder(OPTION_MAX_LATENCY).hasArg().type(Long.class).build());
+		options.addOption(Option.builder(OPTION_THREADS).hasArg().type(Integer.class).build());
+		options.addOption(Option.builder(OPTION_OFF_HEAP_INDEX).build());
+		options.addOption(Option.builder(OPTION_TIMELINE_INTERVAL).hasArg().type(Long.class).build());
+		options.addOption(Option.builder(OPTION_TIMELINE_FILE).hasArg().build());
+		options.addOption(Option.builder(OPTION_PERCENTILES).hasArg().build());
+		options.addOption(Option.builder(OPTION_JSON_REPORT).hasArg().build());
+		options.addOption(Option.builder(OPTION_FOLLOW).build());
+		options.addOption(Option.builder(OPTION_PARTIAL).hasArg().build());
+		options.addOption(Option.builder(OPTION_CHECKPOINT).hasArg().build());
+		options.addOption(Option.builder(OPTION_CHECKPOINT_INTERVAL).hasArg().type(Long.class).build());
 
 		try {
 			CommandLineParser clParser = new DefaultParser();
 			CommandLine cmd = clParser.parse(options, args);
 			
-			float percentile = Float.parseFloat(cmd.getOptionValue(OPTION_PERCENTILE));
+			float percentile = cmd.hasOption(OPTION_PERCENTILE)? Float.parseFloat(cmd.getOptionValue(OPTION_PERCENTILE)) : 0;
 			
-			if(percentile <= 0 || percentile > 1){
+			if(cmd.hasOption(OPTION_PERCENTILE) && (percentile <= 0 || percentile > 1)){
 				throw new ParseException("Percentile value must be within (0,1]");
 			}
 			
+			double[] percentiles = StatsReport.DEFAULT_PERCENTILES;
+			
+			if(cmd.hasOption(OPTION_PERCENTILES)){
+				try {
+					percentiles = StatsReport.parsePercentiles(cmd.getOptionValue(OPTION_PERCENTILES));
+				} catch (IllegalArgumentException e){
+					throw new ParseException(e.getMessage());
+				}
+			}
+			
+			//without a single percentile to print, the full report goes to stdout - unless the results are partial
+			String jsonReportPath = cmd.hasOption(OPTION_JSON_REPORT)? cmd.getOptionValue(OPTION_JSON_REPORT) : cmd.hasOption(OPTION_PERCENTILE) || cmd.hasOption(OPTION_PARTIAL)? null : "-";
+			
 			long startOffset = cmd.hasOption(OPTION_START_OFFSET)? Long.valueOf(cmd.getOptionValue(OPTION_START_OFFSET)) : 0;
 			
-			InputStream in = null;
+			int significantDigits = cmd.hasOption(OPTION_SIGNIFICANT_DIGITS)? Integer.parseInt(cmd.getOptionValue(OPTION_SIGNIFICANT_DIGITS)) : LatencyHistogram.DEFAULT_SIGNIFICANT_DIGITS;
 			
-			if(cmd.hasOption(OPTION_IN_FILE)){
-				String path = cmd.getOptionValue(OPTION_IN_FILE);
-				in = new FileInputStream(path);
-			} else {
-				in = System.in;
+			if(significantDigits < 1 || significantDigits > 5){
+				throw new ParseException("Number of significant digits must be within [1,5]");
+			}
+			
+			long maxLatency = cmd.hasOption(OPTION_MAX_LATENCY)? Long.parseLong(cmd.getOptionValue(OPTION_MAX_LATENCY)) : 0;
+			
+			if(maxLatency < 0){
+				throw new ParseException("Max latency must not be negative");
+			}
+			
+			int threads = cmd.hasOption(OPTION_THREADS)? Integer.parseInt(cmd.getOptionValue(OPTION_THREADS)) : 1;
+			
+			if(threads < 1){
+				throw new ParseException("Number of threads must be positive");
+			}
+			
+			if(threads > 1 && !cmd.hasOption(OPTION_IN_FILE)){
+				throw new ParseException("Parallel analysis requires an input file");
+			}
+			
+			boolean follow = cmd.hasOption(OPTION_FOLLOW);
+			
+			if(follow && !cmd.hasOption(OPTION_IN_FILE)){
+				throw new ParseException("Follow mode requires an input file");
+			}
+			
+			if(follow && (threads > 1 || cmd.hasOption(OPTION_TIMELINE_INTERVAL) || cmd.hasOption(OPTION_DUMP_LOG))){
+				throw new ParseException("Follow mode does not support parallel analysis, a timeline or an event log dump");
+			}
+			
+			if(!follow && (cmd.hasOption(OPTION_CHECKPOINT) || cmd.hasOption(OPTION_CHECKPOINT_INTERVAL))){
+				throw new ParseException("Checkpoints require follow mode");
+			}
+			
+			if(cmd.hasOption(OPTION_MAX_LATENCY) && cmd.hasOption(OPTION_PARTIAL)){
+				throw new ParseException("Partial results include all input events, max latency cannot be used with -m");
+			}
+			
+			if(cmd.hasOption(OPTION_CHECKPOINT) && cmd.hasOption(OPTION_PARTIAL)){
+				throw new ParseException("Checkpoints do not include partial results");
+			}
+			
+			long checkpointInterval = cmd.hasOption(OPTION_CHECKPOINT_INTERVAL)? Long.parseLong(cmd.getOptionValue(OPTION_CHECKPOINT_INTERVAL)) : DEFAULT_CHECKPOINT_INTERVAL;
+			
+			if(checkpointInterval <= 0){
+				throw new ParseException("Checkpoint interval must be positive");
 			}
 			
 			EventMetadata eventMetadata;
@@ -412,19 +1176,60 @@ public class Stats {
 				eventMetadata = new CCFEventMetadata();
 			}
 			
-			Stats stats = Stats.analyze(in, startOffset, eventMetadata);
+			Stats stats = new Stats();
+			stats.setEventMetadata(eventMetadata);
+			stats.setSignificantDigits(significantDigits);
+			stats.setStartTimestamp(startOffset);
+			stats.setMaxLatency(maxLatency);
+			stats.setKeepEventLog(cmd.hasOption(OPTION_DUMP_LOG));
+			stats.setOffHeapIndex(cmd.hasOption(OPTION_OFF_HEAP_INDEX));
+			stats.setPartial(cmd.hasOption(OPTION_PARTIAL));
 			
-			System.out.println(String.format("%.1f%% End-to-end latency: %d ms", percentile * 100, stats.getLatency(percentile)));
-			System.out.println(String.format("%.1f%% Processing latency: %d ms", percentile * 100, stats.getProcessingLatency(percentile)));
+			PrintWriter timelineWriter = null;
 			
-			System.out.println(String.format("%.1f%% End-to-end latencies per event type:", percentile * 100));
-			for (String type : stats.e2eLatenciesPerType.keySet()) {
-				System.out.println(String.format("%s: %d ms", type, stats.getPerTypeLatency(type, percentile)));
+			if(cmd.hasOption(OPTION_TIMELINE_INTERVAL)){
+				long interval = Long.parseLong(cmd.getOptionValue(OPTION_TIMELINE_INTERVAL));
+				
+				if(interval <= 0){
+					throw new ParseException("Timeline interval must be positive");
+				}
+				
+				String timelinePath = cmd.getOptionValue(OPTION_TIMELINE_FILE);
+				timelineWriter = timelinePath != null? new PrintWriter(new BufferedWriter(new FileWriter(timelinePath))) : new PrintWriter(System.out);
+				
+				stats.setTimeline(new Timeline(interval, timelineWriter, timelinePath != null && timelinePath.endsWith(".json")));
 			}
-			System.out.println(String.format("%.1f%% Input phase latency: %d ms", percentile * 100, stats.getInLatency(percentile)));
-			System.out.println(String.format("%.1f%% Output phase latency: %d ms", percentile * 100, stats.getOutLatency(percentile)));
-			System.out.println(String.format("Num of input events: %d, average rate: %f events/sec", stats.numOfInEvents, stats.getAvgInRate() ));
 			
+			if(follow){
+				File checkpoint = cmd.hasOption(OPTION_CHECKPOINT)? new File(cmd.getOptionValue(OPTION_CHECKPOINT)) : null;
+				follow(stats, new File(cmd.getOptionValue(OPTION_IN_FILE)), checkpoint, checkpointInterval * 1000, jsonReportPath, percentiles);
+			} else if(threads > 1){
+				stats.computeStats(new File(cmd.getOptionValue(OPTION_IN_FILE)), threads);
+			} else if(cmd.hasOption(OPTION_IN_FILE)){
+				stats.computeStats(new File(cmd.getOptionValue(OPTION_IN_FILE)));
+			} else {
+				stats.computeStats(System.in);
+			}
+			
+			if(timelineWriter != null && cmd.hasOption(OPTION_TIMELINE_FILE)){
+				timelineWriter.close();
+			}
+			
+			if(stats.timeline != null && stats.timeline.getNumOfLateRecords() > 0){
+				System.err.println(String.format("Warning: %d records arrived too late to be included in the timeline", stats.timeline.getNumOfLateRecords()));
+			}
+			
+			if(cmd.hasOption(OPTION_PARTIAL)){
+				PartialResults.write(stats, new File(cmd.getOptionValue(OPTION_PARTIAL)));
+			}
+			
+			if(cmd.hasOption(OPTION_PERCENTILE)){
+				printLatencies(stats, percentile, System.out);
+			}
+			
+			if(jsonReportPath != null){
+				writeReport(StatsReport.toJSON(stats, percentiles), jsonReportPath);
+			}
 			
 			if(cmd.hasOption(OPTION_DUMP_LOG)){
 				String path = cmd.getOptionValue(OPTION_DUMP_LOG);
@@ -0,0 +1,96 @@
+package org.speedd.perf;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Machine-readable summary of a {@link Stats} run: a percentile ladder plus
+ * count, min, mean and max for every latency class and every event type.
+ */
+public class StatsReport {
+	public static final double[] DEFAULT_PERCENTILES = new double[] { 0.5, 0.9, 0.99, 0.999 };
+
+	private StatsReport() {
+	}
+
+	public static String toJSON(Stats stats, double[] percentiles) {
+		return JSONValue.toJSONString(build(stats, percentiles));
+	}
+
+	public static Map<String, Object> build(Stats stats, double[] percentiles) {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+
+		Map<String, Object> input = new LinkedHashMap<String, Object>();
+		input.put("count", stats.getNumOfInEvents());
+		if (stats.getNumOfInEvents() > 1 && stats.getLatestInEventTimestamp() > stats.getEarliestInEventTimestamp()) {
+			input.put("first_timestamp", stats.getEarliestInEventTimestamp());
+			input.put("last_timestamp", stats.getLatestInEventTimestamp());
+			input.put("avg_rate", stats.getAvgInRate());
+		}
+		report.put("input", input);
+
+		report.put("unmatched_derived_events", stats.getNumOfUnmatchedEvents());
+		report.put("evicted_input_events", stats.getNumOfEvictedInEvents());
+
+		Map<String, Object> latencies = new LinkedHashMap<String, Object>();
+		latencies.put("e2e", summarize(stats.getE2ELatencies(), percentiles));
+		latencies.put("processing", summarize(stats.getProcessingLatencies(), percentiles));
+		latencies.put("in", summarize(stats.getInLatencies(), percentiles));
+		latencies.put("out", summarize(stats.getOutLatencies(), percentiles));
+		report.put("latency_ms", latencies);
+
+		Map<String, Object> perType = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(stats.getE2ELatenciesPerType()).entrySet()) {
+			perType.put(entry.getKey(), summarize(entry.getValue(), percentiles));
+		}
+		report.put("e2e_latency_per_type_ms", perType);
+
+		return report;
+	}
+
+	public static Map<String, Object> summarize(LatencyHistogram histogram, double[] percentiles) {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+
+		summary.put("count", histogram.getCount());
+
+		if (histogram.getCount() > 0) {
+			summary.put("min", histogram.getMin());
+			summary.put("mean", histogram.getMean());
+			for (double percentile : percentiles) {
+				summary.put(percentileLabel(percentile), histogram.getValueAtPercentile(percentile));
+			}
+			summary.put("max", histogram.getMax());
+		}
+
+		return summary;
+	}
+
+	/**
+	 * @return e.g. "p99.9" for 0.999
+	 */
+	public static String percentileLabel(double percentile) {
+		return "p" + new BigDecimal(Double.toString(percentile)).movePointRight(2).stripTrailingZeros().toPlainString();
+	}
+
+	/**
+	 * Parses a comma separated list of percentiles, each within (0,1]
+	 */
+	public static double[] parsePercentiles(String list) {
+		String[] values = list.split("\\s*,\\s*");
+		double[] percentiles = new double[values.length];
+
+		for (int i = 0; i < values.length; ++i) {
+			percentiles[i] = Double.parseDouble(values[i]);
+
+			if (percentiles[i] <= 0 || percentiles[i] > 1) {
+				throw new IllegalArgumentException("Percentile value must be within (0,1]: " + values[i]);
+			}
+		}
+
+		return percentiles;
+	}
+}
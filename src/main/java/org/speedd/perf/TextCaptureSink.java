@@ -0,0 +1,76 @@
+package org.speedd.perf;
+
+import java.io.IOException;
+
+/**
+ * Writes captured messages as "timestamp:message" lines. The message bytes
+ * are copied as they were received.
+ *
+ * The "timestamp:" prefix is encoded into a reusable array and only
+ * re-encoded when the timestamp changes, which at high rates is once per
+ * millisecond rather than once per message.
+ */
+public class TextCaptureSink implements CaptureSink {
+	// longest decimal long plus the separator
+	private static final int PREFIX_SIZE = 21;
+
+	private final CaptureOutput out;
+
+	private final byte[] prefix;
+
+	private int prefixStart;
+
+	private long prefixTimestamp;
+
+	public TextCaptureSink(CaptureOutput out) {
+		this.out = out;
+		prefix = new byte[PREFIX_SIZE];
+		encodePrefix(0);
+	}
+
+	@Override
+	public void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException {
+		if (timestamp != prefixTimestamp) {
+			encodePrefix(timestamp);
+		}
+
+		out.claim(PREFIX_SIZE).put(prefix, prefixStart, PREFIX_SIZE - prefixStart);
+
+		out.put(message, offset, length);
+		out.claim(1).put((byte) '\n');
+		out.endRecord();
+	}
+
+	/**
+	 * Writes the digits right-aligned, so the prefix ends at the end of the
+	 * array
+	 */
+	private void encodePrefix(long timestamp) {
+		long value = timestamp;
+		int start = PREFIX_SIZE - 1;
+
+		prefix[start] = ':';
+
+		do {
+			prefix[--start] = (byte) ('0' + Math.abs(value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		if (timestamp < 0) {
+			prefix[--start] = '-';
+		}
+
+		prefixStart = start;
+		prefixTimestamp = timestamp;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
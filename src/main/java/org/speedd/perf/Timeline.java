@@ -0,0 +1,267 @@
+package org.speedd.perf;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Buckets the analyzed log into fixed intervals of log time and writes input
+ * rate, output rate per event type and latency percentiles for every bucket.
+ *
+ * Buckets are written and recycled as soon as the log has moved a grace
+ * period past their end, so memory is bounded by the number of open buckets
+ * rather than by the length of the log. Records arriving for a bucket that
+ * was already written are counted as late.
+ */
+class Timeline {
+	public static final int DEFAULT_GRACE_INTERVALS = 2;
+
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private static final double[] PERCENTILES = new double[] { 0.5, 0.9, 0.99 };
+
+	private static final String[] LATENCY_NAMES = new String[] { "e2e", "processing", "in", "out" };
+
+	static class Bucket {
+		long start;
+
+		long inEvents;
+
+		Map<String, Long> outEventsPerType = new TreeMap<String, Long>();
+
+		// e2e, processing, in, out
+		LatencyHistogram[] latencies = new LatencyHistogram[LATENCY_NAMES.length];
+
+		public Bucket() {
+			for (int i = 0; i < latencies.length; ++i) {
+				latencies[i] = new LatencyHistogram(SIGNIFICANT_DIGITS);
+			}
+		}
+
+		void reset(long start) {
+			this.start = start;
+			inEvents = 0;
+			outEventsPerType.clear();
+			for (LatencyHistogram latency : latencies) {
+				latency.reset();
+			}
+		}
+
+		long getOutEvents() {
+			long total = 0;
+			for (Long count : outEventsPerType.values()) {
+				total += count;
+			}
+			return total;
+		}
+	}
+
+	public static final int E2E = 0;
+
+	public static final int PROCESSING = 1;
+
+	public static final int IN = 2;
+
+	public static final int OUT = 3;
+
+	private final long interval;
+
+	private final int graceIntervals;
+
+	private final PrintWriter writer;
+
+	private final boolean json;
+
+	private final TreeMap<Long, Bucket> openBuckets;
+
+	private final ArrayDeque<Bucket> freeBuckets;
+
+	// start of the earliest bucket that may still be recorded into
+	private long watermark;
+
+	private long numOfLateRecords;
+
+	private long numOfBuckets;
+
+	public Timeline(long interval, PrintWriter writer, boolean json) {
+		this(interval, DEFAULT_GRACE_INTERVALS, writer, json);
+	}
+
+	public Timeline(long interval, int graceIntervals, PrintWriter writer, boolean json) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Timeline interval must be positive");
+		}
+
+		this.interval = interval;
+		this.graceIntervals = graceIntervals;
+		this.writer = writer;
+		this.json = json;
+		openBuckets = new TreeMap<Long, Bucket>();
+		freeBuckets = new ArrayDeque<Bucket>();
+		watermark = Long.MIN_VALUE;
+		numOfLateRecords = 0;
+		numOfBuckets = 0;
+
+		if (json) {
+			writer.print("[");
+		} else {
+			writer.print("start,in_rate,out_rate");
+			for (String name : LATENCY_NAMES) {
+				for (double percentile : PERCENTILES) {
+					writer.print(String.format(",%s_%s", name, StatsReport.percentileLabel(percentile)));
+				}
+				writer.print(String.format(",%s_max", name));
+			}
+			writer.println(",out_rate_per_type");
+		}
+	}
+
+	/**
+	 * Writes all buckets that ended more than the grace period before the
+	 * given log timestamp.
+	 */
+	public void advance(long timestamp) {
+		long bucketStart = bucketStart(timestamp) - graceIntervals * interval;
+
+		while (!openBuckets.isEmpty() && openBuckets.firstKey() < bucketStart) {
+			write(openBuckets.pollFirstEntry().getValue());
+		}
+
+		if (bucketStart > watermark) {
+			watermark = bucketStart;
+		}
+	}
+
+	public void recordInEvent(long timestamp) {
+		Bucket bucket = getBucket(timestamp);
+		if (bucket != null) {
+			bucket.inEvents++;
+		}
+	}
+
+	public void recordOutEvent(long timestamp, String type) {
+		Bucket bucket = getBucket(timestamp);
+		if (bucket != null) {
+			Long count = bucket.outEventsPerType.get(type);
+			bucket.outEventsPerType.put(type, count == null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * @param latencyClass
+	 *            one of {@link #E2E}, {@link #PROCESSING}, {@link #IN},
+	 *            {@link #OUT}
+	 */
+	public void recordLatency(long timestamp, int latencyClass, long latency) {
+		Bucket bucket = getBucket(timestamp);
+		if (bucket != null) {
+			bucket.latencies[latencyClass].record(latency);
+		}
+	}
+
+	public void close() {
+		while (!openBuckets.isEmpty()) {
+			write(openBuckets.pollFirstEntry().getValue());
+		}
+
+		if (json) {
+			writer.println("]");
+		}
+
+		writer.flush();
+	}
+
+	public long getNumOfLateRecords() {
+		return numOfLateRecords;
+	}
+
+	public long getNumOfBuckets() {
+		return numOfBuckets;
+	}
+
+	private long bucketStart(long timestamp) {
+		return timestamp - ((timestamp % interval) + interval) % interval;
+	}
+
+	private Bucket getBucket(long timestamp) {
+		long start = bucketStart(timestamp);
+
+		if (start < watermark) {
+			numOfLateRecords++;
+			return null;
+		}
+
+		Bucket bucket = openBuckets.get(start);
+
+		if (bucket == null) {
+			bucket = freeBuckets.isEmpty() ? new Bucket() : freeBuckets.poll();
+			bucket.reset(start);
+			openBuckets.put(start, bucket);
+		}
+
+		return bucket;
+	}
+
+	private double rate(long count) {
+		return 1000.0 * count / interval;
+	}
+
+	private void write(Bucket bucket) {
+		if (json) {
+			writeJSON(bucket);
+		} else {
+			writeCSV(bucket);
+		}
+
+		numOfBuckets++;
+		freeBuckets.add(bucket);
+
+		// keep live output current
+		writer.flush();
+	}
+
+	private void writeCSV(Bucket bucket) {
+		writer.print(String.format("%d,%.3f,%.3f", bucket.start, rate(bucket.inEvents), rate(bucket.getOutEvents())));
+
+		for (LatencyHistogram latency : bucket.latencies) {
+			for (double percentile : PERCENTILES) {
+				writer.print(latency.getCount() == 0 ? "," : "," + latency.getValueAtPercentile(percentile));
+			}
+			writer.print(latency.getCount() == 0 ? "," : "," + latency.getMax());
+		}
+
+		writer.print(",");
+		boolean first = true;
+		for (Map.Entry<String, Long> entry : bucket.outEventsPerType.entrySet()) {
+			writer.print(String.format("%s%s=%.3f", first ? "" : ";", entry.getKey(), rate(entry.getValue())));
+			first = false;
+		}
+
+		writer.println();
+	}
+
+	private void writeJSON(Bucket bucket) {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+
+		json.put("start", bucket.start);
+		json.put("in_rate", rate(bucket.inEvents));
+		json.put("out_rate", rate(bucket.getOutEvents()));
+
+		Map<String, Object> outRatePerType = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Long> entry : bucket.outEventsPerType.entrySet()) {
+			outRatePerType.put(entry.getKey(), rate(entry.getValue()));
+		}
+		json.put("out_rate_per_type", outRatePerType);
+
+		for (int i = 0; i < LATENCY_NAMES.length; ++i) {
+			json.put(LATENCY_NAMES[i], StatsReport.summarize(bucket.latencies[i], PERCENTILES));
+		}
+
+		writer.print(numOfBuckets == 0 ? "\n" : ",\n");
+		writer.print(JSONValue.toJSONString(json));
+	}
+}
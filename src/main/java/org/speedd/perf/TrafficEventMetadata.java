@@ -7,9 +7,35 @@ import org.speedd.data.Event;
 import org.speedd.data.impl.SpeeddEventFactory;
 import org.speedd.traffic.TrafficAggregatedReadingCsv2Event;
 
+/**
+ * Traffic readings are identified by "&lt;location&gt;_&lt;lane&gt;_&lt;timestamp&gt;".
+ *
+ * The event key is a hash of the sensor, i.e. location and lane, plus the
+ * numeric timestamp. Every sensor is registered with its hash the first time
+ * it is seen, so that a hash collision between two sensors is detected - the
+ * later sensor then falls back to string ids. Keys are not thread-safe.
+ */
 public class TrafficEventMetadata implements EventMetadata {
 	private static final TrafficAggregatedReadingCsv2Event parser = new TrafficAggregatedReadingCsv2Event(SpeeddEventFactory.getInstance());
 
+	// a new location per replica keeps the event ids unique, the timestamps keep the timeline
+	private static final String[] uniqueAttributes = new String[] {
+			TrafficAggregatedReadingCsv2Event.ATTR_LOCATION
+	};
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// sensors by hash, open addressing: "<location>_<lane>" or null for a free slot
+	private long[] sensorHashes = new long[INITIAL_CAPACITY];
+
+	private String[] sensors = new String[INITIAL_CAPACITY];
+
+	private int numOfSensors = 0;
+
 	@Override
 	public EventParser getEventParser() {
 		return parser;
@@ -19,7 +45,148 @@ public class TrafficEventMetadata implements EventMetadata {
 	public String getEventId(Event event) {
 		Map<String, Object> attrs = event.getAttributes();
 		
-		return String.format("%s_%s_%s", attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LOCATION), attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LANE), attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_TIMESTAMP));
+		return attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LOCATION) + "_" + attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LANE) + "_" + attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_TIMESTAMP);
+	}
+
+	@Override
+	public boolean getEventKey(Event event, long[] key) {
+		Map<String, Object> attrs = event.getAttributes();
+		String location = String.valueOf(attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LOCATION));
+		String lane = String.valueOf(attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LANE));
+		Object timestamp = attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_TIMESTAMP);
+
+		if (timestamp instanceof Number) {
+			key[1] = ((Number) timestamp).longValue();
+		} else if (timestamp instanceof String && isDecimal((String) timestamp, 0)) {
+			key[1] = parseDecimal((String) timestamp, 0);
+		} else {
+			return false;
+		}
+
+		long hash = hash(FNV_OFFSET, location, 0, location.length());
+		hash = (hash ^ '_') * FNV_PRIME;
+		hash = UniqueValueGenerator.mix64(hash(hash, lane, 0, lane.length()));
+
+		int slot = findSensor(hash);
+
+		if (sensors[slot] == null) {
+			addSensor(slot, hash, location + "_" + lane);
+		} else {
+			String sensor = sensors[slot];
+
+			if (sensor.length() != location.length() + 1 + lane.length()
+					|| !sensor.startsWith(location)
+					|| sensor.charAt(location.length()) != '_'
+					|| !sensor.endsWith(lane)) {
+				return false;
+			}
+		}
+
+		key[0] = hash;
+
+		return true;
+	}
+
+	@Override
+	public boolean getEventKey(String eventId, long[] key) {
+		int timestampStart = eventId.lastIndexOf('_') + 1;
+
+		if (timestampStart == 0 || !isDecimal(eventId, timestampStart)) {
+			return false;
+		}
+
+		int sensorLength = timestampStart - 1;
+		long hash = UniqueValueGenerator.mix64(hash(FNV_OFFSET, eventId, 0, sensorLength));
+		int slot = findSensor(hash);
+
+		if (sensors[slot] == null) {
+			addSensor(slot, hash, eventId.substring(0, sensorLength));
+		} else if (sensors[slot].length() != sensorLength || !eventId.regionMatches(0, sensors[slot], 0, sensorLength)) {
+			return false;
+		}
+
+		key[0] = hash;
+		key[1] = parseDecimal(eventId, timestampStart);
+
+		return true;
+	}
+
+	/**
+	 * Only canonical non-negative decimals, so that equal keys imply equal id
+	 * strings
+	 */
+	private static boolean isDecimal(String s, int start) {
+		int length = s.length() - start;
+
+		if (length == 0 || length > 18 || (s.charAt(start) == '0' && length > 1)) {
+			return false;
+		}
+
+		for (int i = start; i < s.length(); ++i) {
+			if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static long parseDecimal(String s, int start) {
+		long value = 0;
+		for (int i = start; i < s.length(); ++i) {
+			value = value * 10 + (s.charAt(i) - '0');
+		}
+		return value;
+	}
+
+	private static long hash(long hash, String s, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private int findSensor(long hash) {
+		int mask = sensors.length - 1;
+		int slot = (int) hash & mask;
+
+		while (sensors[slot] != null && sensorHashes[slot] != hash) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void addSensor(int slot, long hash, String sensor) {
+		sensorHashes[slot] = hash;
+		sensors[slot] = sensor;
+		numOfSensors++;
+
+		if (2 * numOfSensors > sensors.length) {
+			long[] oldHashes = sensorHashes;
+			String[] oldSensors = sensors;
+
+			sensorHashes = new long[2 * oldHashes.length];
+			sensors = new String[2 * oldSensors.length];
+
+			for (int i = 0; i < oldSensors.length; ++i) {
+				if (oldSensors[i] != null) {
+					int newSlot = findSensor(oldHashes[i]);
+					sensorHashes[newSlot] = oldHashes[i];
+					sensors[newSlot] = oldSensors[i];
+				}
+			}
+		}
+	}
+
+	@Override
+	public byte[] toBytes(Event event) {
+		return parser.toBytes(event);
+	}
+
+	@Override
+	public String[] getUniqueAttributes() {
+		return uniqueAttributes;
 	}
 
 }
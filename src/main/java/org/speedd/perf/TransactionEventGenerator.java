@@ -1,14 +1,17 @@
 package org.speedd.perf;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.UUID;
+import java.util.Random;
+import java.util.TreeSet;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -16,51 +19,86 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.speedd.EventParser;
 import org.speedd.data.Event;
-import org.speedd.data.impl.SpeeddEventFactory;
 import org.speedd.fraud.Constants;
-import org.speedd.fraud.FraudAggregatedReadingCsv2Event;
 
 /**
- * Fields to generate unique values for: - transaction_id: string - card_pan:
- * string - terminal_id: string - acquirer_country: integer - card_country:
- * integer
+ * Generates replicas of a source event file. The event format and the
+ * attributes to generate unique values for are given by an
+ * {@link EventMetadata}, credit card fraud transactions by default:
+ * transaction_id, card_pan, terminal_id (strings) and acquirer_country,
+ * card_country (integers).
  * 
  * @author kofman
  * 
  */
 public class TransactionEventGenerator implements Constants {
+	/**
+	 * Receives the generated events. The event instance is reused for the
+	 * next event once onEvent returns, so it must not be retained.
+	 */
 	public static interface EventConsumer {
-		public void onEvent(Event event);
+		public void onEvent(Event event) throws IOException;
+	}
+
+	/**
+	 * Writes events as CSV lines to a stream
+	 */
+	public static class StreamWriter implements EventConsumer {
+		protected OutputStream out;
+		private EventMetadata eventMetadata;
+
+		public StreamWriter(OutputStream out) {
+			this(out, new CCFEventMetadata());
+		}
+
+		public StreamWriter(OutputStream out, EventMetadata eventMetadata) {
+			this.out = out;
+			this.eventMetadata = eventMetadata;
+		}
+
+		public void onEvent(Event event) throws IOException {
+			out.write(eventMetadata.toBytes(event));
+			out.write('\n');
+		}
 	}
 
-	public static class FileWriter implements EventConsumer {
+	public static class FileWriter extends StreamWriter {
+		static final int BUFFER_SIZE = 1024 * 1024;
 		private File outfile;
-		private PrintWriter writer;
+		private Compression.Codec codec;
 		private boolean isOpen;
 
 		public FileWriter(File file) {
-			outfile = file;
-			isOpen = false;
+			this(file, new CCFEventMetadata());
 		}
 
-		public void onEvent(Event event) {
-			FraudAggregatedReadingCsv2Event serializer = new FraudAggregatedReadingCsv2Event(
-					SpeeddEventFactory.getInstance());
-			writer.println(new String(serializer.toBytes(event)));
+		public FileWriter(File file, EventMetadata eventMetadata) {
+			this(file, eventMetadata, Compression.Codec.NONE);
 		}
 
-		public void open() throws FileNotFoundException {
+		/**
+		 * Writes a compressed file, compressing on a pipeline thread
+		 */
+		public FileWriter(File file, EventMetadata eventMetadata, Compression.Codec codec) {
+			super(null, eventMetadata);
+			outfile = file;
+			this.codec = codec;
+			isOpen = false;
+		}
+
+		public void open() throws IOException {
 			if (!isOpen) {
-				writer = new PrintWriter(outfile);
+				out = new BufferedOutputStream(Compression.compress(new FileOutputStream(outfile), codec),
+						BUFFER_SIZE);
 				isOpen = true;
 			}
 		}
 
-		public void close() {
-			writer.flush();
-			writer.close();
-			writer = null;
+		public void close() throws IOException {
+			out.close();
+			out = null;
 			isOpen = false;
 		}
 
@@ -68,20 +106,36 @@ public class TransactionEventGenerator implements Constants {
 
 	private int nReps;
 
-	private int eventReadCount;
+	private final EventMetadata eventMetadata;
+
+	private final String[] uniqueAttrs;
+
+	private UniqueValueGenerator valueGenerator;
+
+	// per unique integer attribute, the sorted distinct source values and bits needed for their count
+	private long[][] intValues;
 
-	private HashMap<String, HashMap<Object, ArrayList>> fields;
+	private int[] intBits;
+
+	/**
+	 * Decoded source events along with the keys of their unique attributes.
+	 * The events are patched in place for every replica, so each generating
+	 * thread needs its own instance.
+	 */
+	static class Templates {
+		ArrayList<Event> events = new ArrayList<Event>();
+
+		// per event and unique attribute, the key the replica values are derived from
+		ArrayList<long[]> keys = new ArrayList<long[]>();
+
+		// per event and unique attribute, whether the value is an integer
+		ArrayList<boolean[]> isInteger = new ArrayList<boolean[]>();
+	}
 
-	private static final String[] uniqueAttrs = new String[] {
-			ATTR_TRANSACTION_ID,
-			ATTR_CARD_PAN,
-			ATTR_TERMINAL_ID,
-			ATTR_ACQUIRER_COUNTRY,
-			ATTR_CARD_COUNTRY
-	};
+	private ArrayList<byte[]> sourceLines;
 
-	private static final HashMap<String, String> uniqueAttrMap = new HashMap<String, String>(
-			uniqueAttrs.length);
+	// templates of the generating thread, decoded during initialization
+	private Templates templates;
 
 	private static final String OPTION_SRC_FILE = "s";
 
@@ -89,20 +143,44 @@ public class TransactionEventGenerator implements Constants {
 
 	private static final String OPTION_NREPS = "r";
 
-	private static final String USAGE = "USAGE: genevents -s <src-file> -t <tgt-file> -r <num of repetitions>";
-	static {
-		for (String attrName : uniqueAttrs) {
-			uniqueAttrMap.put(attrName, attrName);
-		}
-	}
+	private static final String OPTION_THREADS = "p";
+
+	private static final String OPTION_SHARDS = "S";
+
+	private static final String OPTION_SEED = "e";
+
+	private static final String OPTION_USE_CASE = "c";
+
+	private static final String OPTION_COMPRESS = "z";
+
+	private static final String USE_CASE_TRAFFIC = "traffic";
+
+	private static final String USAGE = "USAGE: genevents -s <src-file> -t <tgt-file> -r <num of repetitions> [-p <threads> [-S]] [-e <seed>] [-c ccf|traffic] [-z gzip|lz4]";
 
 	public TransactionEventGenerator() {
-		fields = new HashMap<String, HashMap<Object, ArrayList>>();
-		fields.put(ATTR_TRANSACTION_ID, new HashMap<Object, ArrayList>());
-		fields.put(ATTR_CARD_PAN, new HashMap<Object, ArrayList>());
-		fields.put(ATTR_TERMINAL_ID, new HashMap<Object, ArrayList>());
-		fields.put(ATTR_ACQUIRER_COUNTRY, new HashMap<Object, ArrayList>());
-		fields.put(ATTR_CARD_COUNTRY, new HashMap<Object, ArrayList>());
+		this(new CCFEventMetadata());
+	}
+
+	public TransactionEventGenerator(long seed) {
+		this(new CCFEventMetadata(), seed);
+	}
+
+	public TransactionEventGenerator(EventMetadata eventMetadata) {
+		this(eventMetadata, new Random().nextLong());
+	}
+
+	/**
+	 * @param seed
+	 *            the same seed and source always generate the same events
+	 */
+	public TransactionEventGenerator(EventMetadata eventMetadata, long seed) {
+		this.eventMetadata = eventMetadata;
+		uniqueAttrs = eventMetadata.getUniqueAttributes();
+		valueGenerator = new UniqueValueGenerator(seed);
+		intValues = new long[uniqueAttrs.length][];
+		intBits = new int[uniqueAttrs.length];
+
+		sourceLines = new ArrayList<byte[]>();
 	}
 
 	public void initialize(String path, int nReps) throws IOException {
@@ -111,14 +189,10 @@ public class TransactionEventGenerator implements Constants {
 		this.nReps = nReps;
 
 		try {
-			FraudAggregatedReadingCsv2Event decoder = new FraudAggregatedReadingCsv2Event(
-					SpeeddEventFactory.getInstance());
-
 			reader = new BufferedReader(new FileReader(path));
 
 			boolean done = false;
 
-			eventReadCount = 0;
 			do {
 				String line = reader.readLine();
 				if (line == null) {
@@ -126,13 +200,7 @@ public class TransactionEventGenerator implements Constants {
 					continue;
 				}
 
-				eventReadCount++;
-
-				Event event = decoder.fromBytes(line.getBytes());
-
-				for (String attrName : uniqueAttrs) {
-					generateValuesForAttribute(attrName, event, nReps);
-				}
+				sourceLines.add(line.getBytes());
 
 			} while (!done);
 		} finally {
@@ -140,98 +208,157 @@ public class TransactionEventGenerator implements Constants {
 				reader.close();
 			}
 		}
+
+		computeKeys();
+
+		templates = createTemplates();
 	}
 
-	private void generateValuesForAttribute(String attrName, Event event,
-			int nReps) {
-		Object attrValue = event.getAttributes().get(attrName);
+	/**
+	 * Finds the distinct values of every unique integer attribute, so that the
+	 * index of a source value and the replica index can be packed into a 31
+	 * bit key, and makes sure that no two distinct string values share a
+	 * hash, which would make their replica values collide
+	 */
+	private void computeKeys() {
+		EventParser decoder = eventMetadata.getEventParser();
+
+		ArrayList<TreeSet<Long>> distinct = new ArrayList<TreeSet<Long>>();
+		ArrayList<HashMap<Long, String>> hashes = new ArrayList<HashMap<Long, String>>();
+		for (int a = 0; a < uniqueAttrs.length; ++a) {
+			distinct.add(new TreeSet<Long>());
+			hashes.add(new HashMap<Long, String>());
+		}
+
+		for (byte[] line : sourceLines) {
+			Event event = decoder.fromBytes(line);
+
+			for (int a = 0; a < uniqueAttrs.length; ++a) {
+				Object value = event.getAttributes().get(uniqueAttrs[a]);
 
-		HashMap<Object, ArrayList> values = fields.get(attrName);
-		ArrayList generatedValues = values.get(attrValue);
+				if (value instanceof Number) {
+					distinct.get(a).add(((Number) value).longValue());
+				} else if (value != null) {
+					String string = value.toString();
+					String previous = hashes.get(a).put(UniqueValueGenerator.hash(string), string);
 
-		if (generatedValues != null) {
-			return;
+					if (previous != null && !previous.equals(string)) {
+						throw new IllegalArgumentException(String.format(
+								"%s values %s and %s share a key and would not yield unique values",
+								uniqueAttrs[a], previous, string));
+					}
+				}
+			}
 		}
 
-		generatedValues = new ArrayList(nReps);
-		generateValues(attrValue, generatedValues, nReps);
+		for (int a = 0; a < uniqueAttrs.length; ++a) {
+			TreeSet<Long> values = distinct.get(a);
 
-		values.put(attrValue, generatedValues);
-	}
+			intValues[a] = new long[values.size()];
+
+			int i = 0;
+			for (long value : values) {
+				intValues[a][i++] = value;
+			}
+
+			if (values.isEmpty()) {
+				continue;
+			}
+
+			intBits[a] = 32 - Integer.numberOfLeadingZeros(values.size() - 1);
 
-	private void generateStrings(ArrayList generatedValues, int count) {
-		for (int i = 0; i < count; ++i) {
-			generatedValues.add(UUID.randomUUID().toString());
+			if ((long) nReps > (1L << (31 - intBits[a]))) {
+				throw new IllegalArgumentException(String.format(
+						"%d repetitions of %d distinct %s values do not fit into unique integers",
+						nReps, values.size(), uniqueAttrs[a]));
+			}
 		}
 	}
 
-	private void generateIntegers(ArrayList generatedValues, int count) {
-		String prefix = String.valueOf(1000 + eventReadCount);
-		for (int i = 1; i <= count; ++i) {
-			String valueStr = prefix + String.valueOf(i);
-			generatedValues.add(Integer.valueOf(valueStr));
-		}
+	public EventMetadata getEventMetadata() {
+		return eventMetadata;
 	}
 
-	private void generateValues(Object sourceValue, ArrayList generatedValues,
-			int nReps) {
-		if (sourceValue instanceof String) {
-			generateStrings(generatedValues, nReps);
-		} else { // integers
-			generateIntegers(generatedValues, nReps);
-		}
+	public long getSeed() {
+		return valueGenerator.getSeed();
 	}
 
-	public void generateEvents(String sourceEventsPath,
-			EventConsumer eventConsumer) throws IOException {
-		BufferedReader reader = null;
+	/**
+	 * Decodes a private copy of the source events
+	 */
+	Templates createTemplates() {
+		EventParser decoder = eventMetadata.getEventParser();
 
-		FraudAggregatedReadingCsv2Event decoder = new FraudAggregatedReadingCsv2Event(
-				SpeeddEventFactory.getInstance());
+		Templates templates = new Templates();
 
-		for (int i = 0; i < nReps; ++i) {
-			try {
-				reader = new BufferedReader(new FileReader(sourceEventsPath));
+		for (byte[] line : sourceLines) {
+			Event event = decoder.fromBytes(line);
+			long[] keys = new long[uniqueAttrs.length];
+			boolean[] isInteger = new boolean[uniqueAttrs.length];
 
-				boolean done = false;
+			for (int a = 0; a < uniqueAttrs.length; ++a) {
+				Object value = event.getAttributes().get(uniqueAttrs[a]);
 
-				do {
-					String line = reader.readLine();
-					if (line == null) {
-						done = true;
-						continue;
-					}
+				if (value instanceof Number) {
+					keys[a] = Arrays.binarySearch(intValues[a], ((Number) value).longValue());
+					isInteger[a] = true;
+				} else if (value != null) {
+					keys[a] = UniqueValueGenerator.hash(value.toString());
+				}
+			}
 
-					Event event = decoder.fromBytes(line.getBytes());
+			templates.events.add(event);
+			templates.keys.add(keys);
+			templates.isInteger.add(isInteger);
+		}
 
-					for (String attrName : uniqueAttrs) {
-						replaceUniqueAttr(event, attrName, i);
-					}
+		return templates;
+	}
 
-					eventConsumer.onEvent(event);
+	int getNumOfReplicas() {
+		return nReps;
+	}
 
-				} while (!done);
-			} finally {
-				if (reader != null) {
-					reader.close();
-				}
-			}
+	/**
+	 * Generates the replicas of the source events read by
+	 * {@link #initialize(String, int)}
+	 */
+	public void generateEvents(EventConsumer eventConsumer) throws IOException {
+		for (int i = 0; i < nReps; ++i) {
+			generateReplica(templates, i, eventConsumer);
 		}
 	}
 
-	private void replaceUniqueAttr(Event event, String attrName, int rep) {
-		event.getAttributes().put(
-				attrName,
-				fields.get(attrName).get(event.getAttributes().get(attrName))
-						.get(rep));
+	void generateReplica(Templates templates, int rep,
+			EventConsumer eventConsumer) throws IOException {
+		for (int t = 0; t < templates.events.size(); ++t) {
+			Event event = templates.events.get(t);
+			long[] keys = templates.keys.get(t);
+			boolean[] isInteger = templates.isInteger.get(t);
+
+			for (int a = 0; a < uniqueAttrs.length; ++a) {
+				if (isInteger[a]) {
+					event.getAttributes().put(uniqueAttrs[a],
+							valueGenerator.uniqueInteger(a, keys[a], intBits[a], rep));
+				} else if (event.getAttributes().get(uniqueAttrs[a]) != null) {
+					event.getAttributes().put(uniqueAttrs[a],
+							valueGenerator.uniqueString(a, keys[a], rep));
+				}
+			}
+
+			eventConsumer.onEvent(event);
+		}
 	}
 
 	boolean isUniqueAttr(String attrName) {
-		return uniqueAttrMap.containsKey(attrName);
+		return Arrays.asList(uniqueAttrs).contains(attrName);
 	}
 
 	/**
-	 * USAGE: genevents -s <src-file> -t <tgt-file> -r <num of repetitions>
+	 * USAGE: genevents -s <src-file> -t <tgt-file> -r <num of repetitions> [-p <threads> [-S]] [-e <seed>] [-c ccf|traffic] [-z gzip|lz4]
+	 * 
+	 * With more than one thread, replicas are generated in parallel and written
+	 * in order to the target file, or with -S to one shard file per thread.
 	 * 
 	 * @param args
 	 */
@@ -241,6 +368,11 @@ public class TransactionEventGenerator implements Constants {
 		options.addOption(Option.builder(OPTION_SRC_FILE).hasArg().required().build());
 		options.addOption(Option.builder(OPTION_TGT_FILE).hasArg().required().build());
 		options.addOption(Option.builder(OPTION_NREPS).hasArg().build());
+		options.addOption(Option.builder(OPTION_THREADS).hasArg().build());
+		options.addOption(Option.builder(OPTION_SHARDS).build());
+		options.addOption(Option.builder(OPTION_SEED).hasArg().build());
+		options.addOption(Option.builder(OPTION_USE_CASE).hasArg().build());
+		options.addOption(Option.builder(OPTION_COMPRESS).hasArg().build());
 
 		try {
 			CommandLineParser clParser = new DefaultParser();
@@ -253,25 +385,70 @@ public class TransactionEventGenerator implements Constants {
 			int nReps = cmd.hasOption(OPTION_NREPS) ? Integer.parseInt(cmd
 					.getOptionValue(OPTION_NREPS)) : 1;
 
+			int threads = cmd.hasOption(OPTION_THREADS) ? Integer.parseInt(cmd
+					.getOptionValue(OPTION_THREADS)) : 1;
+
+			if (threads < 1) {
+				throw new ParseException("Number of threads must be positive");
+			}
+
+			if (cmd.hasOption(OPTION_SHARDS) && threads == 1) {
+				throw new ParseException("Sharded output requires more than one thread");
+			}
+
+			Compression.Codec codec = Compression.Codec.NONE;
+
+			if (cmd.hasOption(OPTION_COMPRESS)) {
+				try {
+					codec = Compression.Codec.parse(cmd.getOptionValue(OPTION_COMPRESS));
+				} catch (IllegalArgumentException e) {
+					throw new ParseException("Unknown compression codec: " + cmd.getOptionValue(OPTION_COMPRESS));
+				}
+			}
+
 			System.out.println(String.format("Generating %d replicas of %s - writing to %s", nReps, srcPath, tgtPath));
-			FileWriter fileWriter = new FileWriter(new File(tgtPath));
 
-			TransactionEventGenerator gen = new TransactionEventGenerator();
-			
+			EventMetadata eventMetadata = USE_CASE_TRAFFIC.equals(cmd.getOptionValue(OPTION_USE_CASE)) ? new TrafficEventMetadata() : new CCFEventMetadata();
+
+			TransactionEventGenerator gen = cmd.hasOption(OPTION_SEED) ? new TransactionEventGenerator(
+					eventMetadata, Long.parseLong(cmd.getOptionValue(OPTION_SEED))) : new TransactionEventGenerator(eventMetadata);
+
+			System.out.println(String.format("Seed: %d", gen.getSeed()));
+
 			gen.initialize(srcPath, nReps);
 
-			fileWriter.open();
+			if (threads > 1) {
+				ParallelReplicaWriter writer = new ParallelReplicaWriter(gen, threads);
+				writer.setCodec(codec);
 
-			gen.generateEvents(srcPath, fileWriter);
+				if (cmd.hasOption(OPTION_SHARDS)) {
+					for (File shard : writer.writeShards(tgtPath)) {
+						System.out.println("Wrote " + shard);
+					}
+				} else {
+					OutputStream out = new BufferedOutputStream(Compression.compress(new FileOutputStream(tgtPath), codec), FileWriter.BUFFER_SIZE);
+					try {
+						writer.writeOrdered(out);
+					} finally {
+						out.close();
+					}
+				}
+			} else {
+				FileWriter fileWriter = new FileWriter(new File(tgtPath), eventMetadata, codec);
 
-			fileWriter.close();
+				fileWriter.open();
+
+				gen.generateEvents(fileWriter);
+
+				fileWriter.close();
+			}
 			
 			System.out.println("Completed.");
 		} catch (ParseException e) {
 			System.err.println(e.getMessage());
 			System.err.println(USAGE);
 			System.exit(1);
-		} catch (IOException ioex) {
+		} catch (IOException | IllegalArgumentException ioex) {
 			System.err.println("Error: " + ioex.getMessage());
 			System.exit(1);
 		}
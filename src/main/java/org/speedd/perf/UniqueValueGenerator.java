@@ -0,0 +1,120 @@
+package org.speedd.perf;
+
+import java.util.UUID;
+
+/**
+ * Seeded generator of unique values. A value is a bijective function of a
+ * 64-bit key of the source value it replaces and the replica index, so
+ * nothing has to be kept in memory, values look random, and the same seed
+ * always yields the same values.
+ *
+ * Strings are keyed by their {@link #hash(String)}, so two distinct source
+ * strings may share a key and hence their replica values. Callers have to
+ * check the keys of the source strings for duplicates.
+ */
+public class UniqueValueGenerator {
+	private static final long INT_MASK = (1L << 31) - 1;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final long seed;
+
+	public UniqueValueGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Derives a string value, formatted as a UUID. Distinct (key, rep) pairs
+	 * always yield distinct values of the same attribute.
+	 *
+	 * @param attr
+	 *            index of the attribute, so that attributes get unrelated values
+	 * @param key
+	 *            the source value, e.g. its {@link #hash(String)}
+	 * @param rep
+	 *            the replica index
+	 */
+	public String uniqueString(int attr, long key, long rep) {
+		long salt = mix64(seed + attr * GOLDEN_GAMMA);
+		long hi = key ^ salt;
+		long lo = rep ^ mix64(salt);
+
+		// a Feistel network is a bijection whatever the round function
+		lo ^= mix64(hi);
+		hi ^= mix64(lo);
+		lo ^= mix64(hi);
+
+		return new UUID(hi, lo).toString();
+	}
+
+	/**
+	 * Derives a non-negative int value. Distinct (key, rep) pairs always yield
+	 * distinct values of the same attribute.
+	 *
+	 * @param attr
+	 *            index of the attribute, so that attributes get unrelated values
+	 * @param key
+	 *            the source value, in [0, 2^keyBits)
+	 * @param keyBits
+	 *            number of bits of the key
+	 * @param rep
+	 *            the replica index
+	 * @throws IllegalArgumentException
+	 *             if key and replica index do not fit into 31 bits
+	 */
+	public int uniqueInteger(int attr, long key, int keyBits, long rep) {
+		long value = (rep << keyBits) | key;
+
+		if (key < 0 || key >>> keyBits != 0 || rep < 0 || value > INT_MASK || value >>> keyBits != rep) {
+			throw new IllegalArgumentException(String.format("Key %d of replica %d does not fit into a unique integer", key, rep));
+		}
+
+		return permute31(seed + attr * GOLDEN_GAMMA, value);
+	}
+
+	/**
+	 * 64-bit hash of a string (FNV-1a, finalized by {@link #mix64(long)})
+	 */
+	static long hash(String value) {
+		long h = FNV_OFFSET;
+
+		for (int i = 0; i < value.length(); ++i) {
+			h ^= value.charAt(i);
+			h *= FNV_PRIME;
+		}
+
+		return mix64(h);
+	}
+
+	/**
+	 * Bijection on 31 bit values - every step is invertible modulo 2^31
+	 */
+	static int permute31(long seed, long value) {
+		long x = (value ^ seed) & INT_MASK;
+		x = (x * 0x5bd1e995L) & INT_MASK;
+		x ^= x >>> 15;
+		x = (x * 0x2c1b3c6dL + (seed >>> 33)) & INT_MASK;
+		x ^= x >>> 13;
+		return (int) x;
+	}
+
+	/**
+	 * Murmur3 64-bit finalizer, a bijection on longs
+	 */
+	static long mix64(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
@@ -0,0 +1,134 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+
+import org.apache.curator.test.TestingServer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnalyzerTest {
+	private static final String[] TOPICS = new String[] { "test-in-events", "test-out-events" };
+
+	private static final int PARTITIONS = 3;
+
+	private TestingServer zookeeper;
+
+	private KafkaServerStartable broker;
+
+	private String bootstrapServers;
+
+	private static class CollectingSink implements CaptureSink {
+		Set<String> messages = new HashSet<String>();
+		int[] countPerTopic = new int[TOPICS.length];
+
+		@Override
+		public synchronized void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException {
+			messages.add(new String(message, offset, length));
+			countPerTopic[topicId]++;
+		}
+
+		public synchronized int size() {
+			return messages.size();
+		}
+
+		@Override
+		public void flush() throws IOException {
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	@Before
+	public void startBroker() throws Exception {
+		zookeeper = new TestingServer();
+
+		int port = freePort();
+		File logDir = Files.createTempDirectory("kafka").toFile();
+		logDir.deleteOnExit();
+
+		Properties props = new Properties();
+		props.put("broker.id", "0");
+		props.put("zookeeper.connect", zookeeper.getConnectString());
+		props.put("host.name", "localhost");
+		props.put("port", String.valueOf(port));
+		props.put("log.dirs", logDir.getAbsolutePath());
+		props.put("num.partitions", String.valueOf(PARTITIONS));
+		props.put("offsets.topic.replication.factor", "1");
+
+		broker = new KafkaServerStartable(new KafkaConfig(props));
+		broker.startup();
+
+		bootstrapServers = "localhost:" + port;
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		broker.shutdown();
+		broker.awaitShutdown();
+		zookeeper.close();
+	}
+
+	@Test
+	public void partitionConsumerTest() throws Exception {
+		int messagesPerTopic = 300;
+
+		Map<String, Object> producerConfig = new HashMap<String, Object>();
+		producerConfig.put("bootstrap.servers", bootstrapServers);
+		KafkaProducer<byte[], byte[]> producer = new KafkaProducer<byte[], byte[]>(producerConfig, new ByteArraySerializer(), new ByteArraySerializer());
+
+		for (int i = 0; i < messagesPerTopic; ++i) {
+			for (String topic : TOPICS) {
+				String message = topic + ":" + i;
+				producer.send(new ProducerRecord<byte[], byte[]>(topic, String.valueOf(i).getBytes(), message.getBytes()));
+			}
+		}
+
+		producer.close();
+
+		CollectingSink sink = new CollectingSink();
+		CaptureRingBuffer queue = new CaptureRingBuffer(256, 64, CaptureRingBuffer.WaitStrategy.PARK, CaptureRingBuffer.FullPolicy.BLOCK);
+
+		Analyzer analyzer = new Analyzer(Analyzer.createClientConfig(bootstrapServers, 1, 100, 4096), TOPICS, true, sink, queue, 0);
+		analyzer.run();
+
+		long deadline = System.currentTimeMillis() + 30000;
+		while (sink.size() < TOPICS.length * messagesPerTopic && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		analyzer.shutdown();
+
+		assertEquals(TOPICS.length * messagesPerTopic, sink.size());
+		assertEquals(messagesPerTopic, sink.countPerTopic[0]);
+		assertEquals(messagesPerTopic, sink.countPerTopic[1]);
+		assertEquals(0, queue.getDrops());
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BinaryCaptureTest {
+	private static final String[] TOPICS = new String[] { "speedd-fraud-in-events", "speedd-fraud-out-events" };
+
+	@Test
+	public void statsFromBinaryCaptureTest() throws Exception {
+		File capture = File.createTempFile("capture", ".bin");
+		capture.deleteOnExit();
+
+		writeCapture(capture, 1);
+
+		Stats text = Stats.analyze(new FileInputStream(getEventsLog()), 0, new CCFEventMetadata());
+
+		Stats mapped = new Stats();
+		mapped.setEventMetadata(new CCFEventMetadata());
+		mapped.computeStats(capture);
+
+		Stats streamed = Stats.analyze(new FileInputStream(capture), 0, new CCFEventMetadata());
+
+		for (Stats binary : new Stats[] { mapped, streamed }) {
+			assertEquals(text.getLatency(0.9f), binary.getLatency(0.9f));
+			assertEquals(text.getProcessingLatency(0.9f), binary.getProcessingLatency(0.9f));
+			assertEquals(text.getInLatency(0.5f), binary.getInLatency(0.5f));
+			assertEquals(text.getNumOfInEvents(), binary.getNumOfInEvents());
+		}
+
+		assertTrue(capture.length() < getEventsLog().length());
+	}
+
+	@Test
+	public void syncMarkersAndTruncationTest() throws Exception {
+		File capture = File.createTempFile("capture", ".bin");
+		capture.deleteOnExit();
+
+		// enough repetitions to span several sync intervals
+		int repetitions = 40;
+		writeCapture(capture, repetitions);
+
+		// cut the last record short
+		RandomAccessFile raf = new RandomAccessFile(capture, "rw");
+		raf.setLength(raf.length() - 10);
+		raf.close();
+
+		final int[] count = new int[1];
+		BinaryCaptureReader reader = new BinaryCaptureReader(capture, 64 * 1024);
+		reader.read(new MappedLogScanner.LineHandler() {
+			@Override
+			public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+				count[0]++;
+			}
+		});
+
+		assertEquals(104 * repetitions - 1, count[0]);
+		assertEquals(TOPICS[1], reader.getTopics()[1]);
+	}
+
+	private File getEventsLog() {
+		return new File(getClass().getClassLoader().getResource("eventslog").getFile());
+	}
+
+	private void writeCapture(File capture, int repetitions) throws IOException {
+		BinaryCaptureWriter writer = new BinaryCaptureWriter(new FileOutputStream(capture).getChannel(), TOPICS);
+
+		for (int i = 0; i < repetitions; ++i) {
+			BufferedReader reader = new BufferedReader(new FileReader(getEventsLog()));
+
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] entry = line.split(":", 2);
+					String message = entry[1].trim();
+					byte[] bytes = message.getBytes();
+					writer.write(Long.parseLong(entry[0].trim()), message.startsWith("{") ? 1 : 0, bytes, 0, bytes.length);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		writer.close();
+	}
+}
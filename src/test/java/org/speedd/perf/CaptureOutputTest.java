@@ -0,0 +1,158 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class CaptureOutputTest {
+	@Test
+	public void textSinkTest() throws Exception {
+		File file = File.createTempFile("capture", ".log");
+		file.deleteOnExit();
+
+		// small buffer, so that messages are split across flushes
+		TextCaptureSink sink = new TextCaptureSink(new CaptureOutput(file.getPath(), 64, 0));
+
+		StringBuilder longMessage = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			longMessage.append(i);
+		}
+
+		String[] messages = new String[] { "first", longMessage.toString(), "{\"name\":\"last\"}" };
+
+		for (int i = 0; i < messages.length; ++i) {
+			byte[] bytes = messages[i].getBytes();
+			sink.write(1000L + i, 0, bytes, 0, bytes.length);
+		}
+
+		sink.close();
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			for (int i = 0; i < messages.length; ++i) {
+				assertEquals((1000L + i) + ":" + messages[i], reader.readLine());
+			}
+			assertEquals(null, reader.readLine());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void timestampPrefixTest() throws Exception {
+		File file = File.createTempFile("capture", ".log");
+		file.deleteOnExit();
+
+		TextCaptureSink sink = new TextCaptureSink(new CaptureOutput(file.getPath(), 4096, 0));
+
+		long[] timestamps = new long[] { 0, 7, 1453211040123L, 1453211040123L, 1453211040124L, 10, Long.MAX_VALUE, Long.MIN_VALUE, -5 };
+		byte[] message = "m".getBytes();
+
+		for (long timestamp : timestamps) {
+			sink.write(timestamp, 0, message, 0, message.length);
+		}
+
+		sink.close();
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			for (long timestamp : timestamps) {
+				assertEquals(timestamp + ":m", reader.readLine());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void rotationTest() throws Exception {
+		File base = File.createTempFile("capture", ".bin");
+		base.delete();
+
+		String[] topics = new String[] { "in", "out" };
+		BinaryCaptureWriter writer = new BinaryCaptureWriter(new CaptureOutput(base.getPath(), 4096, 16 * 1024), topics);
+
+		byte[] message = new byte[100];
+		int records = 1000;
+
+		for (int i = 0; i < records; ++i) {
+			writer.write(i, i % 2, message, 0, message.length);
+		}
+
+		writer.close();
+
+		final long[] next = new long[1];
+		int files = 0;
+
+		for (File file = new File(base.getPath() + ".0"); file.exists(); file = new File(base.getPath() + "." + files)) {
+			file.deleteOnExit();
+			assertTrue(file.length() < 16 * 1024 + 4096);
+
+			BinaryCaptureReader reader = new BinaryCaptureReader(file);
+			reader.read(new MappedLogScanner.LineHandler() {
+				@Override
+				public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+					assertEquals(next[0]++, timestamp);
+				}
+			});
+			assertEquals("out", reader.getTopics()[1]);
+
+			files++;
+		}
+
+		assertEquals(records, next[0]);
+		assertTrue(files > 1);
+	}
+
+	@Test
+	public void compressedCaptureTest() throws Exception {
+		File base = File.createTempFile("capture", ".bin.lz4");
+		base.delete();
+
+		String[] topics = new String[] { "in", "out" };
+		CaptureOutput out = new CaptureOutput(base.getPath(), 4096, 64 * 1024, Compression.Codec.LZ4);
+		BinaryCaptureWriter writer = new BinaryCaptureWriter(out, topics);
+
+		byte[] message = new byte[100];
+		int records = 1000;
+
+		for (int i = 0; i < records; ++i) {
+			writer.write(i, i % 2, message, 0, message.length);
+		}
+
+		writer.close();
+
+		final long[] next = new long[1];
+		int files = 0;
+
+		for (File file = new File(base.getPath() + ".0"); file.exists(); file = new File(base.getPath() + "." + files)) {
+			file.deleteOnExit();
+			assertTrue(Compression.isCompressed(file));
+
+			InputStream in = Compression.decompress(new FileInputStream(file));
+			String[] fileTopics = BinaryCaptureReader.read(in, new MappedLogScanner.LineHandler() {
+				@Override
+				public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+					assertEquals(next[0]++, timestamp);
+				}
+			});
+			in.close();
+			assertEquals("out", fileTopics[1]);
+
+			files++;
+		}
+
+		assertEquals(records, next[0]);
+		assertTrue(files > 1);
+	}
+}
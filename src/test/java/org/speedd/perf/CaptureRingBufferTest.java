@@ -0,0 +1,116 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CaptureRingBufferTest {
+	private static class CollectingSink implements CaptureSink {
+		List<Long> timestamps = new ArrayList<Long>();
+		List<Integer> topicIds = new ArrayList<Integer>();
+		List<Integer> values = new ArrayList<Integer>();
+
+		@Override
+		public void write(long timestamp, int topicId, byte[] message, int offset, int length) throws IOException {
+			timestamps.add(timestamp);
+			topicIds.add(topicId);
+			values.add(ByteBuffer.wrap(message, offset, length).getInt());
+		}
+
+		@Override
+		public void flush() throws IOException {
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	@Test
+	public void multipleProducersTest() throws Exception {
+		final int producers = 4;
+		final int messagesPerProducer = 20000;
+
+		// small capacity and slot size, so that producers block and slots grow
+		final CaptureRingBuffer ring = new CaptureRingBuffer(64, 2, CaptureRingBuffer.WaitStrategy.YIELD, CaptureRingBuffer.FullPolicy.BLOCK);
+
+		Thread[] threads = new Thread[producers];
+
+		for (int p = 0; p < producers; ++p) {
+			final int topicId = p;
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] message = new byte[4];
+					for (int i = 0; i < messagesPerProducer; ++i) {
+						ByteBuffer.wrap(message).putInt(i);
+						ring.offer(i, topicId, message, 0, message.length);
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		CollectingSink sink = new CollectingSink();
+
+		while (sink.values.size() < producers * messagesPerProducer) {
+			if (ring.drain(sink, 16) == 0) {
+				ring.getWaitStrategy().idle();
+			}
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int[] next = new int[producers];
+
+		for (int i = 0; i < sink.values.size(); ++i) {
+			int topicId = sink.topicIds.get(i);
+			// messages of a single producer keep their order
+			assertEquals(next[topicId], sink.values.get(i).intValue());
+			assertEquals(next[topicId], sink.timestamps.get(i).longValue());
+			next[topicId]++;
+		}
+
+		assertEquals(0, ring.getDrops());
+		assertEquals(0, ring.getDepth());
+		assertEquals(producers * messagesPerProducer, ring.getConsumed());
+		assertTrue(ring.getMaxDepth() <= 64);
+	}
+
+	@Test
+	public void dropWhenFullTest() throws Exception {
+		CaptureRingBuffer ring = new CaptureRingBuffer(8, 4, CaptureRingBuffer.WaitStrategy.BUSY_SPIN, CaptureRingBuffer.FullPolicy.DROP);
+		byte[] message = new byte[4];
+
+		for (int i = 0; i < 8; ++i) {
+			ByteBuffer.wrap(message).putInt(i);
+			assertTrue(ring.offer(i, 0, message, 0, message.length));
+		}
+
+		assertFalse(ring.offer(8, 0, message, 0, message.length));
+		assertFalse(ring.offer(9, 0, message, 0, message.length));
+		assertEquals(2, ring.getDrops());
+		assertEquals(8, ring.getDepth());
+
+		CollectingSink sink = new CollectingSink();
+		assertEquals(5, ring.drain(sink, 5));
+		assertEquals(3, ring.drain(sink, 5));
+		assertEquals(0, ring.drain(sink, 5));
+
+		for (int i = 0; i < 8; ++i) {
+			assertEquals(i, sink.values.get(i).intValue());
+		}
+
+		assertTrue(ring.offer(10, 0, message, 0, message.length));
+		assertEquals(8, ring.getMaxDepth());
+	}
+}
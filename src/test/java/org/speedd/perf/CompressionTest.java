@@ -0,0 +1,63 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressionTest {
+	@Test
+	public void roundTripTest() throws Exception {
+		// compressible but not trivial, several pipeline blocks long
+		Random random = new Random(1);
+		byte[] data = new byte[3 * Compression.BLOCK_SIZE + 1234];
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+
+		for (Compression.Codec codec : Compression.Codec.values()) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			OutputStream out = Compression.compress(compressed, codec);
+
+			int off = 0;
+			while (off < data.length) {
+				int len = Math.min(random.nextInt(100000), data.length - off);
+				out.write(data, off, len);
+				off += len;
+
+				if (random.nextInt(4) == 0) {
+					out.flush();
+				}
+			}
+			out.write('\n');
+			out.close();
+
+			InputStream in = Compression.decompress(new ByteArrayInputStream(compressed.toByteArray()));
+			assertEquals(codec, Compression.detect(new BufferedInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+
+			byte[] decompressed = readFully(in);
+			assertEquals(data.length + 1, decompressed.length);
+			assertArrayEquals(data, Arrays.copyOf(decompressed, data.length));
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
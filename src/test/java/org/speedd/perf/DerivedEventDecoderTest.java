@@ -0,0 +1,74 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.speedd.data.Event;
+import org.speedd.kafka.JsonEventDecoder;
+
+public class DerivedEventDecoderTest {
+	@Test
+	public void eventLogTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		JsonEventDecoder decoder = new JsonEventDecoder();
+		int derived = 0;
+
+		for (String line : Files.readAllLines(log.toPath(), Charset.defaultCharset())) {
+			String payload = line.split(":", 2)[1].trim();
+
+			if (!payload.startsWith("{")) {
+				continue;
+			}
+
+			Event event = decoder.fromBytes(payload.getBytes());
+			DerivedEventDecoder.DerivedEvent expected = DerivedEventDecoder.fromEvent(event, (String) event.getAttributes().get("EventId"));
+			DerivedEventDecoder.DerivedEvent actual = decode(payload);
+
+			if (expected == null) {
+				assertNull(actual);
+				continue;
+			}
+
+			assertNotNull(actual);
+			assertEquals(expected.name, actual.name);
+			assertEquals(expected.timestamp, actual.timestamp);
+			assertEquals(expected.eventId, actual.eventId);
+			assertArrayEquals(expected.contributingIds, actual.contributingIds);
+			assertArrayEquals(expected.contributingTimestamps, actual.contributingTimestamps);
+			derived++;
+		}
+
+		assertEquals(8, derived);
+	}
+
+	@Test
+	public void encodingsTest() throws Exception {
+		DerivedEventDecoder.DerivedEvent event = decode(" { \"name\" : \"X\", \"attributes\" : { \"nested\" : {\"a\" : [1, {\"b\" : \"}\\\"]\"}]}, "
+				+ "\"timestamps\" : [ 7, \"-3\", 1453705692661 ], \"EventId\" : \"e1\", \"transaction_ids\" : [\"a\", \"b\", \"c\"], \"Cost\" : 0.5 }, \"timestamp\" : 42 } ");
+
+		assertEquals("X", event.name);
+		assertEquals(42, event.timestamp);
+		assertEquals("e1", event.eventId);
+		assertArrayEquals(new String[] { "a", "b", "c" }, event.contributingIds);
+		assertArrayEquals(new long[] { 7, -3, 1453705692661L }, event.contributingTimestamps);
+
+		// not in the expected form: full decoding has to take over
+		assertNull(decode("{\"name\":\"X\",\"timestamp\":1,\"attributes\":{\"EventId\":\"e1\",\"transaction_ids\":[\"a\"]}}"));
+		assertNull(decode("{\"name\":\"X\",\"timestamp\":1,\"attributes\":{\"EventId\":\"e1\",\"transaction_ids\":[\"a\"],\"timestamps\":[1.5]}}"));
+		assertNull(decode("{\"name\":\"X\",\"timestamp\":1,\"attributes\":{\"EventId\":\"e\\\"1\",\"transaction_ids\":[\"a\"],\"timestamps\":[1]}}"));
+		assertNull(decode("{\"name\":\"X\",\"timestamp\":1,\"attributes\":{\"EventId\":\"e1\",\"transaction_ids\":[\"a\"],\"timestamps\":[1]"));
+	}
+
+	private static DerivedEventDecoder.DerivedEvent decode(String json) {
+		byte[] bytes = json.getBytes();
+		return DerivedEventDecoder.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+	}
+}
@@ -0,0 +1,115 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.speedd.data.Event;
+
+public class EventIdIndexTest {
+	@Test
+	public void putGetTest() throws Exception {
+		verifyPutGet(new EventIdIndex());
+		verifyPutGet(new EventIdIndex(true));
+	}
+
+	private void verifyPutGet(EventIdIndex index) {
+		Random random = new Random(7);
+		String[] ids = new String[10000];
+
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = String.format("%016x%016x", random.nextLong(), random.nextLong());
+			index.put(ids[i], i);
+		}
+
+		index.put("loc1_2_1453705691924", -5);
+		index.put(ids[0].toUpperCase(), 42);
+
+		assertEquals(ids.length + 2, index.size());
+
+		for (int i = 0; i < ids.length; ++i) {
+			assertEquals(i, index.get(ids[i]));
+		}
+
+		assertEquals(-5, index.get("loc1_2_1453705691924"));
+		assertEquals(42, index.get(ids[0].toUpperCase()));
+		assertEquals(0, index.get(ids[0]));
+		assertFalse(index.containsKey("9d47b44380024e82aedcf359f8be8dfc"));
+		assertFalse(index.containsKey("unknown"));
+
+		index.put(ids[1], 100);
+		assertEquals(100, index.get(ids[1]));
+		assertEquals(ids.length + 2, index.size());
+	}
+
+	@Test
+	public void evictTest() throws Exception {
+		EventIdIndex index = new EventIdIndex();
+
+		for (int i = 0; i < 5000; ++i) {
+			index.put(String.format("%032x", i), i);
+			index.put("key-" + i, i);
+		}
+
+		assertEquals(2 * 4000, index.evictOlderThan(4000));
+		assertEquals(2 * 1000, index.size());
+
+		assertEquals(EventIdIndex.MISSING, index.get(String.format("%032x", 3999)));
+		assertEquals(EventIdIndex.MISSING, index.get("key-3999"));
+		assertEquals(4000, index.get(String.format("%032x", 4000)));
+		assertTrue(index.containsKey("key-4999"));
+	}
+
+	@Test
+	public void eventKeyTest() throws Exception {
+		long[] key = new long[2];
+		long[] other = new long[2];
+
+		CCFEventMetadata ccf = new CCFEventMetadata();
+		Event transaction = ccf.getEventParser().fromBytes("2224699200000,9d47b44380024e82aedcf359f8be8dfb,0,10,8de8552de9b94c1da2f798fcefe1ac16,204007,5430,19,69,26,49,7022,2342769205,111,439,4,407,9000,69,16,1,16,,,22,13,0".getBytes());
+
+		assertTrue(ccf.getEventKey(transaction, key));
+		assertTrue(ccf.getEventKey("9d47b44380024e82aedcf359f8be8dfb", other));
+		assertArrayEquals(key, other);
+
+		// generated transaction ids are dashed UUIDs
+		UniqueValueGenerator generator = new UniqueValueGenerator(11);
+		for (int rep = 0; rep < 100; ++rep) {
+			String id = generator.uniqueString(0, UniqueValueGenerator.hash("9d47b44380024e82aedcf359f8be8dfb"), rep);
+
+			assertEquals(36, id.length());
+			assertTrue(ccf.getEventKey(id, key));
+			assertTrue(ccf.getEventKey(id.replace("-", ""), other));
+			assertArrayEquals(key, other);
+		}
+
+		assertFalse(ccf.getEventKey("9d47b443-8002-4e82-aedc-f359f8be8dfb".replace('-', '_'), key));
+		assertFalse(ccf.getEventKey("9d47b4438-002-4e82-aedc-f359f8be8dfb", key));
+
+		TrafficEventMetadata traffic = new TrafficEventMetadata();
+
+		for (int location = 0; location < 1000; ++location) {
+			for (int lane = 1; lane <= 3; ++lane) {
+				Event reading = traffic.getEventParser().fromBytes(String.format("1453705691924,loc_%d,%d,x", location, lane).getBytes());
+
+				assertTrue(traffic.getEventKey(reading, key));
+				assertTrue(traffic.getEventKey(traffic.getEventId(reading), other));
+				assertArrayEquals(key, other);
+				assertEquals(1453705691924L, key[1]);
+			}
+		}
+
+		traffic.getEventKey("loc_7_1_1453705691924", key);
+		traffic.getEventKey("loc_7_2_1453705691924", other);
+		assertNotEquals(key[0], other[0]);
+
+		assertFalse(traffic.getEventKey("loc_7_1_01453705691924", key));
+		assertFalse(traffic.getEventKey("loc_7_1_noon", key));
+		assertFalse(traffic.getEventKey(traffic.getEventParser().fromBytes("noon,loc_7,1,x".getBytes()), key));
+	}
+}
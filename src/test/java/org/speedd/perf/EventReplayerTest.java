@@ -0,0 +1,86 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.speedd.data.Event;
+import org.speedd.fraud.Constants;
+
+public class EventReplayerTest {
+	private static class FakeSink implements TransactionEventGenerator.EventConsumer {
+		List<Object> transactionIds = new ArrayList<Object>();
+		int stallAt = -1;
+
+		@Override
+		public void onEvent(Event event) {
+			transactionIds.add(event.getAttributes().get(Constants.ATTR_TRANSACTION_ID));
+
+			if (transactionIds.size() == stallAt) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void scheduleTest() {
+		RateSchedule schedule = new RateSchedule("1000x1s, 0x500ms, 0-2000x1s");
+
+		assertEquals(2000, schedule.getTotalEvents());
+		assertEquals(2500L * 1000000, schedule.getDuration());
+
+		assertEquals(0, schedule.getIntendedTime(0));
+		assertEquals(500L * 1000000, schedule.getIntendedTime(500), 1000);
+		// first event of the ramp, after the pause
+		assertEquals(1500L * 1000000, schedule.getIntendedTime(1000), 1000);
+		// half of the ramp's events are sent within its first sqrt(1/2) of time
+		assertEquals(1500L * 1000000 + (long) (Math.sqrt(0.5) * 1E9), schedule.getIntendedTime(1500), 1000);
+	}
+
+	@Test
+	public void replayTest() throws Exception {
+		TransactionEventGenerator gen = new TransactionEventGenerator();
+		gen.initialize(getClass().getClassLoader().getResource("FeedzaiIntegrationData.csv").getPath(), 10);
+
+		FakeSink sink = new FakeSink();
+		sink.stallAt = 100;
+
+		RateSchedule schedule = new RateSchedule("2000x250ms,1000-3000x250ms");
+		EventReplayer replayer = new EventReplayer(schedule, sink);
+
+		StringWriter log = new StringWriter();
+		replayer.setIntendedTimeLog(new PrintWriter(log));
+
+		long start = System.currentTimeMillis();
+		replayer.replay(gen);
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(1000, replayer.getNumOfSentEvents());
+		assertEquals(1000, sink.transactionIds.size());
+
+		// the stall delays the following events rather than the schedule
+		assertTrue(elapsed >= 490 && elapsed < 2000);
+		assertTrue(replayer.getSendLag().getMax() >= 40 * 1000);
+
+		String[] lines = log.toString().split("\n");
+		assertEquals(1000, lines.length);
+
+		long previous = 0;
+		for (int i = 0; i < lines.length; ++i) {
+			String[] fields = lines[i].split(",");
+			long intended = Long.parseLong(fields[0]);
+			assertTrue(intended >= previous);
+			assertTrue(Long.parseLong(fields[1]) >= intended);
+			assertEquals(sink.transactionIds.get(i), fields[2]);
+			previous = intended;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	@Test
+	public void exactForSmallValuesTest() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		ArrayList<Long> values = new ArrayList<Long>();
+
+		Random random = new Random(17);
+		for (int i = 0; i < 1000; ++i) {
+			long value = random.nextInt(2000) - 100;
+			histogram.record(value);
+			values.add(value);
+		}
+
+		Collections.sort(values);
+
+		float[] percentiles = new float[] { 0.001f, 0.1f, 0.5f, 0.9f, 0.99f, 1f };
+		for (float percentile : percentiles) {
+			int index = (int) Math.round(values.size() * percentile) - 1;
+			assertEquals(values.get(index).longValue(), histogram.getValueAtPercentile(percentile));
+		}
+
+		assertEquals(values.get(0).longValue(), histogram.getMin());
+		assertEquals(values.get(values.size() - 1).longValue(), histogram.getMax());
+		assertEquals(1000, histogram.getCount());
+	}
+
+	@Test
+	public void rankMatchesSortedSamplesTest() throws Exception {
+		float[] percentiles = new float[] { 0.1f, 0.5f, 0.75f, 0.9f, 0.95f, 0.99f, 1f };
+
+		for (int count = 1; count <= 100; ++count) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			ArrayList<Long> values = new ArrayList<Long>();
+
+			for (long value = 1; value <= count; ++value) {
+				histogram.record(value * 10);
+				values.add(value * 10);
+			}
+
+			for (float percentile : percentiles) {
+				int index = (int) (long) Math.round(values.size() * percentile) - 1;
+				if (index < 0) {
+					continue;
+				}
+				assertEquals(String.format("p%s of %d samples", percentile, count), values.get(index).longValue(), histogram.getValueAtPercentile(percentile));
+			}
+		}
+	}
+
+	@Test
+	public void precisionForLargeValuesTest() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram(2);
+		ArrayList<Long> values = new ArrayList<Long>();
+
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; ++i) {
+			long value = (long) (Math.abs(random.nextGaussian()) * 1000000);
+			histogram.record(value);
+			values.add(value);
+		}
+
+		Collections.sort(values);
+
+		float[] percentiles = new float[] { 0.5f, 0.9f, 0.99f, 0.999f };
+		for (float percentile : percentiles) {
+			long expected = values.get((int) Math.round(values.size() * percentile) - 1);
+			long actual = histogram.getValueAtPercentile(percentile);
+			assertTrue(String.format("%d should be within 1%% of %d", actual, expected), Math.abs(actual - expected) <= expected / 100 + 1);
+		}
+	}
+
+	@Test
+	public void addTest() throws Exception {
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = first.copyLayout();
+
+		for (int i = 1; i <= 50; ++i) {
+			first.record(i);
+			second.record(50 + i);
+		}
+
+		first.add(second);
+
+		assertEquals(100, first.getCount());
+		assertEquals(50, first.getValueAtPercentile(0.5));
+		assertEquals(100, first.getMax());
+		assertEquals(50.5, first.getMean(), 1E-9);
+	}
+
+	@Test
+	public void serializationTest() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram(2);
+
+		for (int i = -100; i <= 100000; i += 7) {
+			histogram.record(i);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		histogram.write(new DataOutputStream(bytes));
+
+		LatencyHistogram copy = LatencyHistogram.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(histogram.getCount(), copy.getCount());
+		assertEquals(histogram.getMin(), copy.getMin());
+		assertEquals(histogram.getMax(), copy.getMax());
+		assertEquals(histogram.getMean(), copy.getMean(), 1E-9);
+		assertEquals(2, copy.getSignificantDigits());
+
+		for (double percentile : new double[] { 0.001, 0.5, 0.9, 0.99, 1 }) {
+			assertEquals(histogram.getValueAtPercentile(percentile), copy.getValueAtPercentile(percentile));
+		}
+
+		// the copy keeps the layout, so it can still be added to
+		histogram.add(copy);
+		assertEquals(2 * copy.getCount(), histogram.getCount());
+	}
+}
@@ -1,10 +1,30 @@
 package org.speedd.perf;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import org.json.simple.JSONValue;
 import org.junit.Test;
 
 public class StatsTest {
@@ -24,4 +44,432 @@ public class StatsTest {
 		
 	}
 	
+	@Test
+	public void streamingModeTest() throws Exception {
+		Stats stats = analyzeStreaming(60000);
+		
+		assertEquals(361, stats.getLatency(0.9f));
+		assertEquals(0, stats.getNumOfEvictedInEvents());
+		
+		stats = analyzeStreaming(200);
+		
+		assertEquals(48, stats.getNumOfInEvents());
+		assertTrue(stats.getNumOfEvictedInEvents() > 0);
+		assertTrue(stats.getNumOfUnmatchedEvents() > 0);
+	}
+	
+	@Test
+	public void printEvictedTest() throws Exception {
+		//100 ms evicts the input events of all derived events, 150 ms of all derived events of some types
+		for (long maxLatency : new long[] {100, 150}) {
+			Stats stats = analyzeStreaming(maxLatency);
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Stats.printLatencies(stats, 0.9f, new PrintStream(bytes, true));
+			String output = bytes.toString();
+			
+			assertTrue(output.contains("Num of unmatched derived events: " + stats.getNumOfUnmatchedEvents()));
+			assertTrue(output.contains(String.format("Num of input events evicted after %d ms: %d", maxLatency, stats.getNumOfEvictedInEvents())));
+			
+			for (LatencyHistogram histogram : stats.getE2ELatenciesPerType().values()) {
+				assertTrue(histogram.getCount() > 0);
+			}
+		}
+		
+		assertEquals(0, analyzeStreaming(100).getE2ELatencies().getCount());
+	}
+	
+	@Test
+	public void parallelAnalysisTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		
+		Stats sequential = Stats.analyze(new FileInputStream(log), 0, new CCFEventMetadata());
+		
+		Stats parallel = new Stats();
+		parallel.setEventMetadata(new CCFEventMetadata());
+		parallel.computeStats(log, 4);
+		
+		assertSameResults(sequential, parallel);
+		
+		//force many small chunks so that derived events are joined across chunk boundaries
+		parallel = new Stats();
+		parallel.setEventMetadata(new CCFEventMetadata());
+		parallel.initRecorders();
+		new ChunkedLogReader(log, 4, 1024, parallel).read();
+		
+		assertSameResults(sequential, parallel);
+	}
+	
+	@Test
+	public void mappedScanTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		
+		Stats sequential = Stats.analyze(new FileInputStream(log), 0, new CCFEventMetadata());
+		
+		Stats mapped = new Stats();
+		mapped.setEventMetadata(new CCFEventMetadata());
+		mapped.computeStats(log);
+		
+		assertSameResults(sequential, mapped);
+		
+		//windows much smaller than the file, so that lines cross window boundaries
+		final ArrayList<Long> timestamps = new ArrayList<Long>();
+		new MappedLogScanner(log, 2048).scan(new MappedLogScanner.LineHandler() {
+			@Override
+			public void onLine(long timestamp, ByteBuffer buffer, int payloadStart, int payloadEnd) {
+				timestamps.add(timestamp);
+			}
+		});
+		
+		assertEquals(104, timestamps.size());
+		assertEquals(1453705691924L, timestamps.get(0).longValue());
+	}
+	
+	@Test
+	public void compressedInputTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		
+		Stats plain = Stats.analyze(new FileInputStream(log), 0, new CCFEventMetadata());
+		
+		for(Compression.Codec codec : new Compression.Codec[]{Compression.Codec.GZIP, Compression.Codec.LZ4}){
+			File compressed = File.createTempFile("eventslog", "." + codec.name().toLowerCase());
+			compressed.deleteOnExit();
+			
+			OutputStream out = Compression.compress(new FileOutputStream(compressed), codec);
+			out.write(Files.readAllBytes(log.toPath()));
+			out.close();
+			
+			assertTrue(compressed.length() < log.length());
+			
+			assertSameResults(plain, Stats.analyze(new FileInputStream(compressed), 0, new CCFEventMetadata()));
+			
+			Stats stats = new Stats();
+			stats.setEventMetadata(new CCFEventMetadata());
+			stats.computeStats(compressed);
+			
+			assertSameResults(plain, stats);
+			
+			stats = new Stats();
+			stats.setEventMetadata(new CCFEventMetadata());
+			stats.computeStats(compressed, 4);
+			
+			assertSameResults(plain, stats);
+		}
+	}
+	
+	@Test
+	public void trafficTest() throws Exception {
+		StringBuilder log = new StringBuilder();
+		
+		for(int i=0; i<100; ++i){
+			long occurrence = 1453705691000L + (i / 4) * 1000;
+			log.append(String.format("%d : %d,sensor_%d,%d,x\n", 1000 + 10 * i, occurrence, i % 2, i % 4 < 2? 1 : 2));
+			log.append(String.format("%d : {\"timestamp\":%d,\"name\":\"AggregatedSensorRead\",\"attributes\":{\"timestamp\":%d,\"location\":\"sensor_%d\",\"lane\":\"%d\"}}\n", 1000 + 10 * i + 5 + i, 1000 + 10 * i + 1, occurrence, i % 2, i % 4 < 2? 1 : 2));
+		}
+		
+		Stats stats = Stats.analyze(new ByteArrayInputStream(log.toString().getBytes()), 0, new TrafficEventMetadata());
+		
+		assertEquals(100, stats.getNumOfInEvents());
+		assertEquals(54, stats.getPerTypeLatency("AggregatedSensorRead", 0.5f));
+		assertEquals(104, stats.getPerTypeLatency("AggregatedSensorRead", 1f));
+	}
+	
+	@Test
+	public void timelineTest() throws Exception {
+		StringWriter csv = new StringWriter();
+		
+		Stats stats = new Stats();
+		stats.setEventMetadata(new CCFEventMetadata());
+		Timeline timeline = new Timeline(1000, new PrintWriter(csv), false);
+		stats.setTimeline(timeline);
+		stats.computeStats(new FileInputStream(getClass().getClassLoader().getResource("eventslog").getFile()));
+		
+		String[] rows = csv.toString().split("\n");
+		
+		assertEquals(timeline.getNumOfBuckets() + 1, rows.length);
+		assertEquals(0, timeline.getNumOfLateRecords());
+		
+		double inEvents = 0;
+		for (int i = 1; i < rows.length; ++i) {
+			inEvents += Double.parseDouble(rows[i].split(",")[1]);
+		}
+		
+		assertEquals(48, inEvents, 1E-6);
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void jsonReportTest() throws Exception {
+		Stats stats = Stats.analyze(new FileInputStream(getClass().getClassLoader().getResource("eventslog").getFile()), 0, new CCFEventMetadata());
+		
+		Map<String, Object> report = (Map<String, Object>)JSONValue.parse(StatsReport.toJSON(stats, new double[] {0.5, 0.9, 0.999}));
+		
+		Map<String, Object> latencies = (Map<String, Object>)report.get("latency_ms");
+		Map<String, Object> e2e = (Map<String, Object>)latencies.get("e2e");
+		Map<String, Object> processing = (Map<String, Object>)latencies.get("processing");
+		
+		assertEquals(361L, e2e.get("p90"));
+		assertEquals(stats.getLatency(0.999f), e2e.get("p99.9"));
+		assertEquals(13L, processing.get("p90"));
+		assertEquals(48L, ((Map<String, Object>)report.get("input")).get("count"));
+		assertTrue(((Map<String, Object>)report.get("e2e_latency_per_type_ms")).containsKey("TransactionsInFarAwayPlaces"));
+	}
+	
+	@Test
+	public void liveAnalysisTest() throws Exception {
+		Stats offline = analyzeStreaming(60000);
+		
+		Stats live = new Stats();
+		live.setEventMetadata(new CCFEventMetadata());
+		live.setMaxLatency(60000);
+		live.setKeepEventLog(false);
+		
+		LiveStatsSink sink = new LiveStatsSink(live, null);
+		
+		BufferedReader reader = new BufferedReader(new FileReader(getClass().getClassLoader().getResource("eventslog").getFile()));
+		
+		String line;
+		while((line = reader.readLine()) != null){
+			String[] entry = line.split(":", 2);
+			byte[] message = entry[1].trim().getBytes();
+			sink.write(Long.parseLong(entry[0].trim()), 0, message, 0, message.length);
+		}
+		reader.close();
+		
+		byte[] garbage = "{not json".getBytes();
+		sink.write(System.currentTimeMillis(), 1, garbage, 0, garbage.length);
+		
+		sink.close();
+		
+		assertSameResults(offline, live);
+		assertEquals(1, sink.getNumOfSkippedMessages());
+	}
+	
+	@Test
+	public void livePublishTest() throws Exception {
+		StringWriter csv = new StringWriter();
+		
+		Stats live = new Stats();
+		live.setEventMetadata(new CCFEventMetadata());
+		live.setKeepEventLog(false);
+		live.setTimeline(new Timeline(1000, 1, new PrintWriter(csv), false));
+		
+		LiveStatsSink sink = new LiveStatsSink(live, null);
+		
+		BufferedReader reader = new BufferedReader(new FileReader(getClass().getClassLoader().getResource("eventslog").getFile()));
+		String[] entry = reader.readLine().split(":", 2);
+		reader.close();
+		
+		long timestamp = Long.parseLong(entry[0].trim());
+		byte[] message = entry[1].trim().getBytes();
+		sink.write(timestamp, 0, message, 0, message.length);
+		
+		//only the header until the input has been idle for the interval and the grace period
+		sink.publish(timestamp);
+		assertEquals(1, csv.toString().split("\n").length);
+		
+		sink.publish(timestamp + 3000);
+		assertEquals(2, csv.toString().split("\n").length);
+		
+		sink.close();
+		sink.publish(timestamp + 10000);
+		assertEquals(2, csv.toString().split("\n").length);
+	}
+	
+	@Test
+	public void followTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		byte[] bytes = Files.readAllBytes(log.toPath());
+		
+		Stats sequential = Stats.analyze(new FileInputStream(log), 0, new CCFEventMetadata());
+		
+		//the first part ends within a line, the log is rotated after the second part
+		int split = bytes.length / 2;
+		int rotation = lineStart(bytes, 3 * bytes.length / 4);
+		
+		File dir = Files.createTempDirectory("follow").toFile();
+		File first = new File(dir, "capture.0");
+		File second = new File(dir, "capture.1");
+		File checkpoint = new File(dir, "checkpoint");
+		
+		append(first, bytes, 0, split);
+		
+		Stats stats = new Stats();
+		stats.setEventMetadata(new CCFEventMetadata());
+		LogFollower follower = new LogFollower(first, stats);
+		
+		assertTrue(follower.poll());
+		assertEquals(lineStart(bytes, split), follower.getOffset());
+		assertFalse(follower.poll());
+		
+		follower.writeCheckpoint(checkpoint);
+		
+		//resume in a fresh analysis
+		stats = new Stats();
+		stats.setEventMetadata(new CCFEventMetadata());
+		follower = new LogFollower(first, stats);
+		follower.resume(checkpoint);
+		
+		assertEquals(lineStart(bytes, split), follower.getOffset());
+		
+		append(first, bytes, split, rotation);
+		append(second, bytes, rotation, bytes.length);
+		
+		assertTrue(follower.poll());
+		assertEquals(second.getAbsoluteFile(), follower.getFile());
+		assertTrue(follower.poll());
+		assertFalse(follower.poll());
+		
+		assertSameResults(sequential, stats);
+		
+		for (File file : new File[] {first, second, checkpoint, dir}) {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void mergeTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		List<String> lines = Files.readAllLines(log.toPath(), Charset.defaultCharset());
+		
+		Stats sequential = Stats.analyze(new FileInputStream(log), 0, new CCFEventMetadata());
+		
+		//lines spread over three nodes, so most derived events are captured apart from their input events
+		List<File> partials = new ArrayList<File>();
+		int numOfDeferredEvents = 0;
+		
+		for(int node=0; node<3; ++node){
+			StringBuilder nodeLog = new StringBuilder();
+			for(int i=node; i<lines.size(); i+=3){
+				nodeLog.append(lines.get(i)).append('\n');
+			}
+			
+			Stats stats = new Stats();
+			stats.setEventMetadata(new CCFEventMetadata());
+			stats.setPartial(true);
+			stats.computeStats(new ByteArrayInputStream(nodeLog.toString().getBytes()));
+			numOfDeferredEvents += stats.getDeferredEvents().size();
+			
+			File partial = File.createTempFile("partial", ".bin");
+			partial.deleteOnExit();
+			PartialResults.write(stats, partial);
+			partials.add(partial);
+		}
+		
+		assertTrue(numOfDeferredEvents > 0);
+		
+		Stats merged = PartialResults.merge(partials);
+		
+		assertSameResults(sequential, merged);
+		assertEquals(sequential.getE2ELatenciesPerType().keySet(), merged.getE2ELatenciesPerType().keySet());
+		
+		for (String type : sequential.getE2ELatenciesPerType().keySet()) {
+			assertEquals(sequential.getE2ELatenciesPerType().get(type).getCount(), merged.getE2ELatenciesPerType().get(type).getCount());
+		}
+		
+		//a single partial result merges to the plain analysis
+		Stats whole = new Stats();
+		whole.setEventMetadata(new CCFEventMetadata());
+		whole.setPartial(true);
+		whole.computeStats(new FileInputStream(log));
+		
+		File partial = File.createTempFile("partial", ".bin");
+		partial.deleteOnExit();
+		PartialResults.write(whole, partial);
+		
+		assertSameResults(sequential, PartialResults.merge(Collections.singletonList(partial)));
+	}
+	
+	@Test
+	public void mergeOldInputTest() throws Exception {
+		File log = new File(getClass().getClassLoader().getResource("eventslog").getFile());
+		List<String> lines = Files.readAllLines(log.toPath(), Charset.defaultCharset());
+		
+		//output events are captured on another node, two minutes after their input events
+		long delay = 120000;
+		long maxLatency = 60000;
+		
+		StringBuilder inputLog = new StringBuilder();
+		StringBuilder outputLog = new StringBuilder();
+		long lastTimestamp = 0;
+		
+		for (String line : lines) {
+			String[] entry = line.split(":", 2);
+			long timestamp = Long.parseLong(entry[0].trim());
+			
+			if(entry[1].trim().startsWith("{")){
+				outputLog.append(timestamp + delay).append(" :").append(entry[1]).append('\n');
+			} else {
+				inputLog.append(line).append('\n');
+				lastTimestamp = Math.max(lastTimestamp, timestamp);
+			}
+		}
+		
+		//an input event late enough to evict all others from the window
+		String first = lines.get(0).split(":", 2)[1];
+		inputLog.append(lastTimestamp + delay).append(" :").append(first.replaceFirst(",[0-9a-f]{32},", ",00000000000000000000000000000000,")).append('\n');
+		
+		Stats sequential = Stats.analyze(new ByteArrayInputStream((inputLog.toString() + outputLog).getBytes()), 0, new CCFEventMetadata());
+		
+		List<File> partials = new ArrayList<File>();
+		
+		for (String nodeLog : new String[] {inputLog.toString(), outputLog.toString()}) {
+			Stats stats = new Stats();
+			stats.setEventMetadata(new CCFEventMetadata());
+			stats.setMaxLatency(maxLatency);
+			stats.setPartial(true);
+			stats.computeStats(new ByteArrayInputStream(nodeLog.getBytes()));
+			
+			assertEquals(0, stats.getNumOfEvictedInEvents());
+			
+			File partial = File.createTempFile("partial", ".bin");
+			partial.deleteOnExit();
+			PartialResults.write(stats, partial);
+			partials.add(partial);
+		}
+		
+		Stats merged = PartialResults.merge(partials);
+		
+		assertTrue(merged.getLatency(0.5f) >= delay);
+		assertSameResults(sequential, merged);
+	}
+	
+	private static int lineStart(byte[] bytes, int offset) {
+		while(offset > 0 && bytes[offset - 1] != '\n'){
+			offset--;
+		}
+		return offset;
+	}
+	
+	private static void append(File file, byte[] bytes, int start, int end) throws Exception {
+		OutputStream out = new FileOutputStream(file, true);
+		out.write(bytes, start, end - start);
+		out.close();
+	}
+	
+	private void assertSameResults(Stats expected, Stats actual) {
+		float[] percentiles = new float[] {0.5f, 0.9f, 0.99f, 1f};
+		
+		for (float percentile : percentiles) {
+			assertEquals(expected.getLatency(percentile), actual.getLatency(percentile));
+			assertEquals(expected.getProcessingLatency(percentile), actual.getProcessingLatency(percentile));
+			assertEquals(expected.getInLatency(percentile), actual.getInLatency(percentile));
+			assertEquals(expected.getOutLatency(percentile), actual.getOutLatency(percentile));
+		}
+		
+		assertEquals(expected.getNumOfInEvents(), actual.getNumOfInEvents());
+		assertEquals(expected.getNumOfUnmatchedEvents(), actual.getNumOfUnmatchedEvents());
+		assertEquals(expected.getAvgInRate(), actual.getAvgInRate(), 1E-4);
+	}
+	
+	private Stats analyzeStreaming(long maxLatency) throws Exception {
+		Stats stats = new Stats();
+		stats.setEventMetadata(new CCFEventMetadata());
+		stats.setMaxLatency(maxLatency);
+		stats.setKeepEventLog(false);
+		stats.computeStats(new FileInputStream(getClass().getClassLoader().getResource("eventslog").getFile()));
+		
+		return stats;
+	}
+	
 }
@@ -1,14 +1,21 @@
 package org.speedd.perf;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 import org.speedd.data.Event;
@@ -16,6 +23,7 @@ import org.speedd.data.impl.SpeeddEventFactory;
 import org.speedd.fraud.Constants;
 import org.speedd.fraud.FraudAggregatedReadingCsv2Event;
 import org.speedd.perf.TransactionEventGenerator.FileWriter;
+import org.speedd.traffic.TrafficAggregatedReadingCsv2Event;
 
 public class TransactionEventGeneratorTest {
 	TransactionEventGenerator gen;
@@ -25,7 +33,9 @@ public class TransactionEventGeneratorTest {
 		String srcPath = getClass().getClassLoader()
 				.getResource("FeedzaiIntegrationData.csv").getPath();
 
-		String tgtPath = "generated-events.csv";
+		File tgt = File.createTempFile("generated-events", ".csv");
+		tgt.deleteOnExit();
+		String tgtPath = tgt.getPath();
 
 		FileWriter fileWriter = new FileWriter(new File(tgtPath));
 
@@ -34,7 +44,7 @@ public class TransactionEventGeneratorTest {
 
 		fileWriter.open();
 
-		gen.generateEvents(srcPath, fileWriter);
+		gen.generateEvents(fileWriter);
 
 		fileWriter.close();
 
@@ -42,6 +52,156 @@ public class TransactionEventGeneratorTest {
 				readEventsFromCSV(tgtPath));
 	}
 
+	@Test
+	public void parallelGenerationTest() throws Exception {
+		String srcPath = getClass().getClassLoader()
+				.getResource("FeedzaiIntegrationData.csv").getPath();
+
+		int nReps = 20;
+
+		gen = new TransactionEventGenerator();
+		gen.initialize(srcPath, nReps);
+
+		ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+		gen.generateEvents(new TransactionEventGenerator.StreamWriter(sequential));
+
+		ByteArrayOutputStream ordered = new ByteArrayOutputStream();
+		new ParallelReplicaWriter(gen, 4).writeOrdered(ordered);
+
+		assertArrayEquals(sequential.toByteArray(), ordered.toByteArray());
+
+		File base = File.createTempFile("generated", ".csv");
+		base.delete();
+
+		Set<String> sequentialLines = new HashSet<String>(Arrays.asList(new String(sequential.toByteArray()).split("\n")));
+		Set<String> shardLines = new HashSet<String>();
+		int numOfLines = 0;
+
+		for (File shard : new ParallelReplicaWriter(gen, 3).writeShards(base.getPath())) {
+			shard.deleteOnExit();
+			for (String line : Files.readAllLines(shard.toPath(), Charset.defaultCharset())) {
+				shardLines.add(line);
+				numOfLines++;
+			}
+		}
+
+		assertEquals(readEventsFromCSV(srcPath).size() * nReps, numOfLines);
+		assertEquals(sequentialLines, shardLines);
+	}
+
+	@Test
+	public void seededGenerationTest() throws Exception {
+		String srcPath = getClass().getClassLoader()
+				.getResource("FeedzaiIntegrationData.csv").getPath();
+
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[2];
+
+		for (int i = 0; i < outputs.length; ++i) {
+			TransactionEventGenerator seeded = new TransactionEventGenerator(1234);
+			seeded.initialize(srcPath, 5);
+
+			outputs[i] = new ByteArrayOutputStream();
+			seeded.generateEvents(new TransactionEventGenerator.StreamWriter(outputs[i]));
+		}
+
+		assertArrayEquals(outputs[0].toByteArray(), outputs[1].toByteArray());
+
+		FraudAggregatedReadingCsv2Event csv2event = new FraudAggregatedReadingCsv2Event(
+				SpeeddEventFactory.getInstance());
+		Set<Object> transactionIds = new HashSet<Object>();
+		String[] lines = new String(outputs[0].toByteArray()).split("\n");
+
+		for (String line : lines) {
+			Event event = csv2event.fromBytes(line.getBytes());
+			transactionIds.add(event.getAttributes().get(Constants.ATTR_TRANSACTION_ID));
+		}
+
+		assertEquals(readEventsFromCSV(srcPath).size() * 5, lines.length);
+		assertEquals(lines.length, transactionIds.size());
+	}
+
+	@Test
+	public void trafficGenerationTest() throws Exception {
+		File src = File.createTempFile("traffic", ".csv");
+		src.deleteOnExit();
+
+		ArrayList<String> srcLines = new ArrayList<String>();
+		for (int i = 0; i < 20; ++i) {
+			srcLines.add(String.format("%d,%d,%s,%d", 1400000000000L + (i / 4) * 1000, 4000 + i % 2, i % 4 < 2 ? "fast" : "slow", i));
+		}
+		Files.write(src.toPath(), srcLines, Charset.defaultCharset());
+
+		int nReps = 3;
+
+		TrafficEventMetadata eventMetadata = new TrafficEventMetadata();
+		gen = new TransactionEventGenerator(eventMetadata, 99);
+		gen.initialize(src.getPath(), nReps);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelReplicaWriter(gen, 2).writeOrdered(out);
+
+		String[] lines = new String(out.toByteArray()).split("\n");
+		assertEquals(srcLines.size() * nReps, lines.length);
+
+		Set<String> eventIds = new HashSet<String>();
+		Set<Object> locations = new HashSet<Object>();
+
+		for (int i = 0; i < lines.length; ++i) {
+			Event event = eventMetadata.getEventParser().fromBytes(lines[i].getBytes());
+			Map<String, Object> attrs = event.getAttributes();
+			Map<String, Object> srcAttrs = eventMetadata.getEventParser().fromBytes(srcLines.get(i % srcLines.size()).getBytes()).getAttributes();
+
+			assertTrue(eventIds.add(eventMetadata.getEventId(event)));
+			assertEquals(srcAttrs.get(TrafficAggregatedReadingCsv2Event.ATTR_TIMESTAMP), attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_TIMESTAMP));
+			assertEquals(srcAttrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LANE), attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LANE));
+			locations.add(attrs.get(TrafficAggregatedReadingCsv2Event.ATTR_LOCATION));
+		}
+
+		// each source location maps to one location per replica
+		assertEquals(2 * nReps, locations.size());
+	}
+
+	@Test
+	public void wideIntegerRangeTest() throws Exception {
+		String srcPath = getClass().getClassLoader()
+				.getResource("FeedzaiIntegrationData.csv").getPath();
+
+		// the terminal ids span more than 2^30, but there are only three of them
+		String[] terminalIds = new String[] { "5", "1500000000", "2000000000" };
+
+		ArrayList<String> srcLines = new ArrayList<String>();
+		for (String line : Files.readAllLines(new File(srcPath).toPath(), Charset.defaultCharset())) {
+			String[] values = line.split(",", -1);
+			values[13] = terminalIds[srcLines.size() % terminalIds.length];
+
+			StringBuilder srcLine = new StringBuilder(values[0]);
+			for (int i = 1; i < values.length; ++i) {
+				srcLine.append(',').append(values[i]);
+			}
+			srcLines.add(srcLine.toString());
+		}
+
+		File src = File.createTempFile("transactions", ".csv");
+		src.deleteOnExit();
+		Files.write(src.toPath(), srcLines, Charset.defaultCharset());
+
+		gen = new TransactionEventGenerator(7);
+		gen.initialize(src.getPath(), 1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		gen.generateEvents(new TransactionEventGenerator.StreamWriter(out));
+
+		String[] lines = new String(out.toByteArray()).split("\n");
+		assertEquals(srcLines.size(), lines.length);
+
+		Set<Object> generatedIds = new HashSet<Object>();
+		for (String line : lines) {
+			generatedIds.add(line.split(",", -1)[13]);
+		}
+
+		assertEquals(terminalIds.length, generatedIds.size());
+	}
+
 	private ArrayList<Event> readEventsFromCSV(String csvPath)
 			throws IOException {
 		ArrayList<Event> events = new ArrayList<Event>();
@@ -0,0 +1,57 @@
+package org.speedd.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class UniqueValueGeneratorTest {
+	@Test
+	public void uniqueStringsTest() {
+		UniqueValueGenerator gen = new UniqueValueGenerator(42);
+		Set<String> values = new HashSet<String>();
+
+		for (long key = 0; key < 20000; ++key) {
+			for (int rep = 0; rep < 10; ++rep) {
+				String value = gen.uniqueString(0, key, rep);
+				assertTrue(values.add(value));
+				assertEquals(value, UUID.fromString(value).toString());
+			}
+		}
+
+		UniqueValueGenerator same = new UniqueValueGenerator(42);
+		UniqueValueGenerator other = new UniqueValueGenerator(43);
+
+		assertTrue(values.contains(same.uniqueString(0, 7, 3)));
+		assertFalse(values.contains(other.uniqueString(0, 7, 3)));
+		assertFalse(values.contains(gen.uniqueString(1, 7, 3)));
+	}
+
+	@Test
+	public void uniqueIntegersTest() {
+		UniqueValueGenerator gen = new UniqueValueGenerator(-7);
+		BitSet seen = new BitSet();
+
+		for (long key = 0; key < 1000; ++key) {
+			for (int rep = 0; rep < 1000; ++rep) {
+				int value = gen.uniqueInteger(0, key, 10, rep);
+				assertTrue(value >= 0);
+				assertFalse(seen.get(value));
+				seen.set(value);
+			}
+		}
+
+		try {
+			gen.uniqueInteger(0, 1, 10, 1 << 21);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}